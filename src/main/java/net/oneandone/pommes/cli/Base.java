@@ -38,10 +38,21 @@ public abstract class Base {
         this.console = this.environment.console();
     }
 
+    /** commits database changes if the command succeeds, discards them otherwise */
     public void run() throws Exception {
-        try (Database database = environment.lib.loadDatabase()) {
-            run(new Scope(environment.lib.properties().defaultStorage,
-                    database, environment, new CentralSearch(environment.world(), environment.maven())));
+        try (Database database = environment.lib.loadDatabase(console)) {
+            try {
+                run(new Scope(environment.lib.properties().defaultStorage,
+                        database, environment, new CentralSearch(environment.world(), environment.mavenPool())));
+            } catch (Throwable e) {
+                try {
+                    database.rollback();
+                } catch (IOException e2) {
+                    e.addSuppressed(e2);
+                }
+                throw e;
+            }
+            database.commit();
         }
     }
 
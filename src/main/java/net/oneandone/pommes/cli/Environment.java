@@ -16,16 +16,22 @@
 package net.oneandone.pommes.cli;
 
 import net.oneandone.inline.Console;
-import net.oneandone.maven.summon.api.Config;
-import net.oneandone.maven.summon.api.Maven;
+import net.oneandone.pommes.database.Database;
+import net.oneandone.pommes.database.Gav;
 import net.oneandone.pommes.database.Project;
 import net.oneandone.pommes.database.Variables;
 import net.oneandone.pommes.descriptor.Descriptor;
+import net.oneandone.pommes.descriptor.PomReader;
+import net.oneandone.pommes.scm.CheckoutCache;
 import net.oneandone.pommes.scm.Scm;
+import net.oneandone.pommes.storage.HttpCache;
 import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.fs.filter.Filter;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.nio.charset.Charset;
@@ -39,7 +45,11 @@ public class Environment implements Variables {
     private final Console console;
     private final World world;
     public final Lib lib;
-    private Maven lazyMaven;
+    private MavenPool lazyMavenPool;
+    private HttpCache lazyHttpCache;
+    private CheckoutCache lazyCheckoutCache;
+    private PomReader lazyPomReader;
+    private Database parentDatabase;
     private Project lazyCurrentPom;
     private Filter lazyExcludes;
 
@@ -48,7 +58,11 @@ public class Environment implements Variables {
         this.world = world;
         this.lib = Lib.load(world);
         console.verbose.println("default storage: " + lib.properties().defaultStorage);
-        this.lazyMaven = null;
+        this.lazyMavenPool = null;
+        this.lazyHttpCache = null;
+        this.lazyCheckoutCache = null;
+        this.lazyPomReader = null;
+        this.parentDatabase = null;
         this.lazyCurrentPom = null;
         this.lazyExcludes = null;
     }
@@ -70,14 +84,68 @@ public class Environment implements Variables {
         return world;
     }
 
-    public Maven maven() throws IOException {
-        if (lazyMaven == null) {
-            Config config = new Config();
-            config.allowExtensions().allowAll();
-            config.allowPomRepositories().allowAll();
-            lazyMaven = config.build();
+    /** Maven instances are expensive, so they are created on demand */
+    public synchronized MavenPool mavenPool() {
+        if (lazyMavenPool == null) {
+            lazyMavenPool = new MavenPool(lib.properties().mavenInstances);
+        }
+        return lazyMavenPool;
+    }
+
+    /** shared by all http based storages */
+    public synchronized HttpCache httpCache() {
+        if (lazyHttpCache == null) {
+            lazyHttpCache = new HttpCache(lib.httpCache(), lib.properties().httpCache * 1024L * 1024L);
+        }
+        return lazyHttpCache;
+    }
+
+    public synchronized PomReader pomReader() {
+        if (lazyPomReader == null) {
+            lazyPomReader = new PomReader(gav -> {
+                Database database;
+
+                database = parentDatabase();
+                return database == null ? null : database.projectByArtifactOpt(gav);
+            }, this::repositoryPomOpt);
+        }
+        return lazyPomReader;
+    }
+
+    /** @return null if not found */
+    private byte[] repositoryPomOpt(Gav gav) throws IOException {
+        File file;
+
+        try {
+            file = mavenPool().run(maven -> maven.resolve(new DefaultArtifact(gav.groupId, gav.artifactId, "pom", gav.version)));
+        } catch (ArtifactResolutionException e) {
+            return null;
+        }
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /** @param database to look up parent poms when reading poms, null for none */
+    public synchronized void setParentDatabase(Database database) {
+        this.parentDatabase = database;
+    }
+
+    private synchronized Database parentDatabase() {
+        return parentDatabase;
+    }
+
+    /** shared by st, remove and file storages */
+    public synchronized CheckoutCache checkoutCache() throws IOException {
+        if (lazyCheckoutCache == null) {
+            lazyCheckoutCache = CheckoutCache.load(lib.checkoutCache());
+        }
+        return lazyCheckoutCache;
+    }
+
+    /** saves the checkout cache if it was used; call when all walks finished, they share the cache */
+    public synchronized void saveCheckoutCacheOpt() throws IOException {
+        if (lazyCheckoutCache != null) {
+            lazyCheckoutCache.save();
         }
-        return lazyMaven;
     }
 
     //-- Variables interface
@@ -18,20 +18,26 @@ package net.oneandone.pommes.cli;
 import com.google.gson.internal.Streams;
 import com.google.gson.stream.JsonWriter;
 import net.oneandone.inline.ArgumentException;
+import net.oneandone.pommes.database.Coordinate;
 import net.oneandone.pommes.database.Field;
-import net.oneandone.pommes.database.Project;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.NodeInstantiationException;
 import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.file.FileNode;
+import net.oneandone.sushi.util.Separator;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPOutputStream;
 
 public class Find extends Base {
@@ -40,18 +46,82 @@ public class Find extends Base {
 
     private final Node output;
     private final boolean fold;
+    private final boolean explain;
+    private final int limit;
+    private final int offset;
+    /** null for index order */
+    private final Sort sort;
+    /** null to print projects */
+    private final Field groupField;
+    private final Coordinate groupCoordinate;
     private final List<String> query;
     private StringBuilder formatBuilder;
 
-    public Find(Environment environment, String output, boolean fold) throws URISyntaxException, NodeInstantiationException {
+    public Find(Environment environment, String output, boolean fold, boolean explain, int limit, int offset, String sort, String group)
+            throws URISyntaxException, NodeInstantiationException {
+
         super(environment);
+        if (limit < 0) {
+            throw new ArgumentException("invalid limit: " + limit);
+        }
+        if (offset < 0) {
+            throw new ArgumentException("invalid offset: " + offset);
+        }
 
         this.output = output == null ? null : fileOrNode(world, output);
         this.fold = fold;
+        this.explain = explain;
+        this.limit = limit == 0 ? Integer.MAX_VALUE : limit;
+        this.offset = offset;
+        this.sort = sort == null ? null : sort(sort);
+        if (group == null) {
+            this.groupField = null;
+            this.groupCoordinate = null;
+        } else {
+            this.groupField = field(group);
+            this.groupCoordinate = coordinate(group);
+        }
         this.query = new ArrayList<>();
         this.formatBuilder = null;
     }
 
+    /** @param spec comma-separated coordinates, e.g. a.g,a.v */
+    private static Sort sort(String spec) {
+        List<SortField> fields;
+
+        fields = new ArrayList<>();
+        for (String item : Separator.COMMA.split(spec)) {
+            fields.add(field(item).sortField(coordinate(item)));
+        }
+        return new Sort(fields.toArray(new SortField[0]));
+    }
+
+    /** @param spec field id, dot, coordinate id; e.g. d.g */
+    private static Field field(String spec) {
+        Field result;
+
+        if (spec.length() != 3 || spec.charAt(1) != '.') {
+            throw new ArgumentException("expected field id, '.' and coordinate id: " + spec);
+        }
+        try {
+            result = Field.forId(spec.charAt(0));
+        } catch (IllegalStateException e) {
+            throw new ArgumentException(e.getMessage());
+        }
+        if (!result.hasCoordinates()) {
+            throw new ArgumentException("field has no coordinates: " + result.dbname());
+        }
+        return result;
+    }
+
+    private static Coordinate coordinate(String spec) {
+        try {
+            return Coordinate.forId(spec.charAt(2));
+        } catch (IllegalStateException e) {
+            throw new ArgumentException(e.getMessage());
+        }
+    }
+
     public void arg(String arg) {
         switch (arg) {
             case "-":
@@ -93,7 +163,7 @@ public class Find extends Base {
 
     @Override
     public void run(Scope scope) throws Exception {
-        List<Project> projects;
+        int count;
         String format;
         String macroName;
         List<String> macro;
@@ -116,8 +186,9 @@ public class Find extends Base {
             } else {
                 macroName = null;
             }
-            projects = scope.queryDatabase(query);
-            console.verbose.println("Matching projects: " + projects.size());
+            if (explain) {
+                console.info.print(scope.explainDatabase(query));
+            }
             if (formatBuilder != null) {
                 format = formatBuilder.toString();
                 if (format.startsWith("-")) {
@@ -145,16 +216,22 @@ public class Find extends Base {
             } else {
                 dest = output.newWriter();
             }
+            if (groupField != null) {
+                count = group(scope, dest);
+                console.verbose.println("Values: " + count);
+                return;
+            }
             switch (format) {
                 case JSON:
-                    json(projects, true, dest);
+                    count = json(scope, true, dest);
                     break;
                 case DUMP:
-                    json(projects, false, dest);
+                    count = json(scope, false, dest);
                     break;
                 default:
-                    text(projects, format, dest);
+                    count = text(scope, format, dest);
             }
+            console.verbose.println("Matching projects: " + count);
         } finally {
             if (dest != null) {
                 dest.close();
@@ -163,50 +240,72 @@ public class Find extends Base {
         }
     }
 
-    private void text(List<Project> projects, String format, Writer dest) throws IOException {
-        List<String> done;
-        String line;
+    /** @return number of values */
+    private int group(Scope scope, Writer dest) throws IOException {
+        Map<String, Integer> counts;
 
-        done = new ArrayList<>();
-        for (Project project : projects) {
-            line = format(Field.document(project), format);
-            if (fold) {
-                if (done.contains(line)) {
-                    continue;
-                }
-                done.add(line);
+        counts = scope.groupDatabase(query, groupField, groupCoordinate);
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            dest.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+        return counts.size();
+    }
+
+    /** limit applies to projects, not to the lines left after folding */
+    private int text(Scope scope, String format, Writer dest) throws IOException {
+        Set<String> done;
+
+        done = new HashSet<>();
+        return scope.queryDatabase(query, fields(format), sort, offset, limit, document -> {
+            String line;
+
+            line = format(document, format);
+            if (fold && !done.add(line)) {
+                return;
             }
             dest.write(line);
             dest.write("\n");
-        }
+        });
     }
 
-    private void json(List<Project> matches, boolean prettyprint, Writer dest) throws IOException {
+    private int json(Scope scope, boolean prettyprint, Writer dest) throws IOException {
         JsonWriter jsonWriter;
-        boolean first;
+        int count;
 
         jsonWriter = new JsonWriter(dest);
         jsonWriter.setLenient(true);
         if (prettyprint) {
             jsonWriter.setIndent("  ");
         }
-        try {
-            jsonWriter.beginArray();
-            first = true;
-            for (Project project : matches) {
-                if (first) {
-                    first = false;
-                } else {
-                    // nop
+        jsonWriter.beginArray();
+        count = scope.queryDatabase(query, null, sort, offset, limit, document -> Streams.write(Field.project(document).toJson(), jsonWriter));
+        jsonWriter.endArray();
+        jsonWriter.flush();
+        dest.write("\n");
+        return count;
+    }
+
+    /** @return stored fields referenced by the format, null if all fields are needed */
+    private static Set<String> fields(String format) {
+        Set<String> result;
+        char c;
+
+        result = new HashSet<>();
+        for (int i = 0, max = format.length() - 1; i < max; i++) {
+            if (format.charAt(i) == '%') {
+                i++;
+                c = format.charAt(i);
+                switch (c) {
+                    case '%':
+                        break;
+                    case 'c':
+                        return null;
+                    default:
+                        result.add(Field.forId(c).dbname());
                 }
-                Streams.write(project.toJson(), jsonWriter);
             }
-            jsonWriter.endArray();
-            jsonWriter.flush();
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
         }
-        dest.write("\n");
+        return result;
     }
 
     private String format(Document document, String format) throws IOException {
@@ -22,28 +22,63 @@ import net.oneandone.pommes.database.Field;
 import net.oneandone.pommes.database.Project;
 import net.oneandone.pommes.descriptor.Descriptor;
 import net.oneandone.pommes.descriptor.ErrorDescriptor;
+import net.oneandone.pommes.descriptor.UnchangedDescriptor;
 import net.oneandone.pommes.storage.Storage;
+import net.oneandone.pommes.storage.TreeStorage;
 import net.oneandone.pommes.scm.Git;
 import net.oneandone.pommes.scm.Scm;
 import net.oneandone.sushi.util.Separator;
 import org.apache.lucene.document.Document;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Index extends Base {
+    public static final int DEFAULT_LOADERS = 4;
+
+    /**
+     * Commit data key prefix for the start time of the last successful index run of a storage, followed by a hash of the
+     * storage definition. A changed definition may add repositories that did not change since then.
+     */
+    public static final String WATERMARK = "watermark.";
+
+    /** changed repositories are listed with this overlap: gitlab updates activity at most once per hour, and clocks differ */
+    private static final Duration WATERMARK_OVERLAP = Duration.ofMinutes(70);
+
+    private final int loaders;
+    private final boolean full;
     private final List<String> storages;
 
-    public Index(Environment environment, List<String> storages) {
+    public Index(Environment environment, int loaders, boolean full, List<String> storages) {
         super(environment);
 
+        if (loaders < 1) {
+            throw new ArgumentException("loaders expected to be positive: " + loaders);
+        }
+        this.loaders = loaders;
+        this.full = full;
+
         Set<String> available = environment.lib.properties().storages.keySet();
         this.storages = storages;
         for (String storage : storages) {
@@ -55,47 +90,122 @@ public class Index extends Base {
 
     @Override
     public void run(Scope scope) throws Exception {
-        Storage storage;
+        Map<String, Storage> selected;
         Indexer indexer;
+        List<Thread> scanners;
+        Thread scanner;
+        Instant started;
+        String watermark;
+        Instant since;
 
+        started = Instant.now();
+        selected = new LinkedHashMap<>();
         for (Map.Entry<String, String> entry : environment.lib.properties().storages.entrySet()) {
             if (!storages.isEmpty() && !storages.contains(entry.getKey())) {
                 // not selected
                 continue;
             }
-            storage = null;
-            for (String str : Separator.SPACE.split(entry.getValue())) {
-                if (str.equals("§§")) {
-                    String host = storage(storage, str).getTokenHost();
-                    if (host != null) {
-                        Git.UP up = Scm.GIT.getCredentials(environment.console(), environment.world().getWorking(), host);
-                        storage(storage, str).setToken(up.password());
-                    }
-                } else if (str.startsWith("-")) {
-                    storage(storage, str).addExclude(str.substring(1));
-                } else if (str.startsWith("%")) {
-                    storage(storage, str).addOption(str.substring(1));
-                } else {
-                    if (storage != null) {
-                        throw new ArgumentException("duplicate storage: " + storage);
-                    }
-                    storage = Storage.createStorage(environment, entry.getKey(), str);
+            selected.put(entry.getKey(), createStorage(entry.getKey(), entry.getValue()));
+        }
+        if (!full) {
+            for (Map.Entry<String, Storage> entry : selected.entrySet()) {
+                watermark = scope.getDatabase().getCommitData(WATERMARK + entry.getKey());
+                since = watermarkOpt(watermark, environment.lib.properties().storages.get(entry.getKey()));
+                if (since != null) {
+                    entry.getValue().setChangedSince(since.minus(WATERMARK_OVERLAP));
+                } else if (watermark != null) {
+                    console.info.println(entry.getKey() + ": storage definition changed, listing all repositories");
                 }
             }
+        }
+        indexer = new Indexer(environment, scope.getDatabase(), loaders, started);
+        indexer.listExisting(selected);
+        environment.setParentDatabase(scope.getDatabase());
+        indexer.start();
+        try {
+            scanners = new ArrayList<>();
+            for (Map.Entry<String, Storage> entry : selected.entrySet()) {
+                console.info.println("indexing " + entry.getKey() + ": " + environment.lib.properties().storages.get(entry.getKey()));
+                scanner = new Thread(() -> indexer.scan(entry.getKey(), entry.getValue()), "Scanner-" + entry.getKey());
+                scanner.start();
+                scanners.add(scanner);
+            }
+            for (Thread s : scanners) {
+                s.join();
+            }
+        } finally {
+            indexer.src.put(ErrorDescriptor.END_OF_QUEUE);
+            indexer.join();
+            environment.setParentDatabase(null);
+        }
+        environment.saveCheckoutCacheOpt();
+        if (indexer.exception != null) {
+            throw indexer.exception;
+        }
+        indexer.checkScans();
+    }
 
-            console.info.println("indexing " + entry.getKey() + ": " + entry.getValue());
-            indexer = new Indexer(environment, scope.getDatabase(), entry.getKey());
-            indexer.start();
-            try {
-                storage.scan(indexer.src, environment.console());
-            } finally {
-                indexer.src.put(ErrorDescriptor.END_OF_QUEUE);
-                indexer.join();
+    public static String watermark(Instant started, String definition) {
+        return started + " " + definitionHash(definition);
+    }
+
+    /** @return null if there's no watermark or if it was recorded for a different storage definition */
+    public static Instant watermarkOpt(String watermark, String definition) {
+        int idx;
+
+        if (watermark == null) {
+            return null;
+        }
+        idx = watermark.indexOf(' ');
+        if (idx == -1 || !watermark.substring(idx + 1).equals(definitionHash(definition))) {
+            return null;
+        }
+        return Instant.parse(watermark.substring(0, idx));
+    }
+
+    /** hash of the storage url and selection; tuning options don't change the repositories found */
+    private static String definitionHash(String definition) {
+        StringBuilder identity;
+
+        identity = new StringBuilder();
+        for (String str : Separator.SPACE.split(definition)) {
+            if (!(str.startsWith("%") && TreeStorage.isTuningOption(str.substring(1)))) {
+                identity.append(str).append(' ');
             }
-            if (indexer.exception != null) {
-                throw indexer.exception;
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(identity.toString().getBytes(StandardCharsets.UTF_8)), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Storage createStorage(String name, String definition) throws IOException, URISyntaxException {
+        Storage storage;
+
+        storage = null;
+        for (String str : Separator.SPACE.split(definition)) {
+            if (str.equals("§§")) {
+                String host = storage(storage, str).getTokenHost();
+                if (host != null) {
+                    Git.UP up = Scm.GIT.getCredentials(environment.console(), environment.world().getWorking(), host);
+                    storage(storage, str).setToken(up.password());
+                }
+            } else if (str.startsWith("-")) {
+                storage(storage, str).addExclude(str.substring(1));
+            } else if (str.startsWith("%")) {
+                storage(storage, str).addOption(str.substring(1));
+            } else {
+                if (storage != null) {
+                    throw new ArgumentException("duplicate storage: " + storage);
+                }
+                storage = Storage.createStorage(environment, name, str);
             }
         }
+        if (storage == null) {
+            throw new ArgumentException("storage " + name + ": missing url");
+        }
+        return storage;
     }
 
     private Storage storage(Storage storage, String str) {
@@ -105,59 +215,115 @@ public class Index extends Base {
         return storage;
     }
 
-    /** Iterates modified or new documents, skips unmodified ones */
+    /**
+     * Indexing pipeline: storages are scanned concurrently into src, loader threads take descriptors from src, skip unmodified
+     * ones and turn the others into documents; this thread writes them into the database, removes projects that were not found
+     * anymore and commits. Iterates modified or new documents.
+     */
     public static class Indexer extends Thread implements Iterator<Document> {
+        private static final Document END_OF_DOCUMENTS = new Document();
+
         private final Environment environment;
 
         public final BlockingQueue<Descriptor> src;
+        private final BlockingQueue<Document> documents;
         private final Database database;
-        private final String storage;
+        private final int loaders;
+
+        /** maps storage names to scan failures; projects of failed storages are not removed */
+        private final Map<String, Throwable> failed;
+        private final Instant started;
+        private final Map<String, Storage> storages;
+        /** storages with descriptors that could not be loaded; their watermarks are not advanced */
+        private final Set<String> incomplete;
 
         private Exception exception;
+        private final AtomicReference<RuntimeException> loaderException;
+        /** true to make loaders consume remaining descriptors without loading them */
+        private volatile boolean aborted;
+        private boolean loadersStarted;
 
         private Document current;
-        private int count;
-        private int errors;
+        private boolean done;
+        private final AtomicInteger count;
+        private final AtomicInteger errors;
+        private final AtomicInteger running;
 
         private final Map<String, String> existing;
 
-        public Indexer(Environment environment, Database database, String storage) {
+        public Indexer(Environment environment, Database database, int loaders, Instant started) {
             super("Indexer");
 
+            if (loaders < 1) {
+                throw new IllegalArgumentException("loaders: " + loaders);
+            }
             this.environment = environment;
 
             this.src = new ArrayBlockingQueue<>(25);
+            this.documents = new ArrayBlockingQueue<>(25);
 
             this.database = database;
-            this.storage = storage;
+            this.loaders = loaders;
+            this.failed = new ConcurrentHashMap<>();
+            this.started = started;
+            this.storages = new LinkedHashMap<>();
+            this.incomplete = ConcurrentHashMap.newKeySet();
             this.exception = null;
+            this.loaderException = new AtomicReference<>();
+            this.aborted = false;
+            this.loadersStarted = false;
 
             // CAUTION: current is not defined until this thread is started (because it would block this constructor)!
 
-            this.count = 0;
-            this.errors = 0;
-            this.existing = new HashMap<>();
+            this.done = false;
+            this.count = new AtomicInteger();
+            this.errors = new AtomicInteger();
+            this.running = new AtomicInteger();
+            this.existing = new ConcurrentHashMap<>();
         }
 
-        public void run() {
-            long started;
+        /** call before starting this thread; passes indexed revisions to the storages, so they can skip unchanged projects */
+        public void listExisting(Map<String, Storage> selected) throws IOException {
+            long listStarted;
+            Map<String, String> revisions;
+            TreeMap<String, String> indexed;
+            int prefix;
+
+            listStarted = System.currentTimeMillis();
+            for (Map.Entry<String, Storage> entry : selected.entrySet()) {
+                storages.put(entry.getKey(), entry.getValue());
+                revisions = new HashMap<>();
+                database.list(entry.getKey(), revisions);
+                existing.putAll(revisions);
+                indexed = new TreeMap<>();
+                prefix = entry.getKey().length() + 1;
+                for (Map.Entry<String, String> origin : revisions.entrySet()) {
+                    indexed.put(origin.getKey().substring(prefix), origin.getValue());
+                }
+                entry.getValue().setIndexed(Collections.unmodifiableNavigableMap(indexed));
+            }
+            environment.console().verbose.println("scanned " + existing.size() + " existing projects: "
+                    + (System.currentTimeMillis() - listStarted) + " ms");
+        }
 
+        public void run() {
             try {
-                started = System.currentTimeMillis();
-                database.list(storage, existing);
-                environment.console().verbose.println("scanned " + existing.size() + " existing projects: "
-                        + (System.currentTimeMillis() - started) + " ms");
+                startLoaders();
                 current = iter();
-                database.index(this);
-                for (String origin : existing.keySet()) {
-                    environment.console().info.println("D " + origin);
+                database.index(this, () -> loaderException.get() != null ? Collections.emptyList() : removes(), this::watermarks);
+                if (loaderException.get() != null) {
+                    throw loaderException.get();
                 }
-                database.removeOrigins(existing.keySet());
+                database.commit(); // before failed scans are reported, they do not affect other storages
                 summary();
             } catch (Exception e) {
                 exception = e;
+                aborted = true;
+                if (!loadersStarted) {
+                    startLoaders();
+                }
                 try {
-                    // consume remaining to avoid blocking scans
+                    // consume remaining to avoid blocking loaders and scans
                     while (iter() != null) {
                         // nop
                     }
@@ -168,6 +334,146 @@ public class Index extends Base {
             }
         }
 
+        /** scanner thread: scans the specified storage into src; failures are recorded, they do not affect other storages */
+        public void scan(String name, Storage storage) {
+            Console console;
+
+            console = environment.console();
+            try {
+                storage.scan(src, console);
+            } catch (Throwable e) {
+                failed.put(name, e);
+                console.error.println("scanning " + name + " failed: " + e.getMessage());
+                e.printStackTrace(console.verbose);
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            }
+        }
+
+        /** @return watermarks for all storages that were indexed successfully and completely */
+        private Map<String, String> watermarks() {
+            Map<String, String> result;
+            String storage;
+
+            result = new HashMap<>();
+            if (loaderException.get() == null) {
+                for (Map.Entry<String, Storage> entry : storages.entrySet()) {
+                    storage = entry.getKey();
+                    if (incomplete.contains(storage) || entry.getValue().getLoadErrors() > 0) {
+                        environment.console().info.println(storage + ": load errors, changes will be listed again by the next run");
+                    } else if (!failed.containsKey(storage)) {
+                        result.put(WATERMARK + storage, watermark(started, environment.lib.properties().storages.get(storage)));
+                    }
+                }
+            }
+            return result;
+        }
+
+        /** @return origins that were not found by scanning, excluding origins of storages that failed */
+        private List<String> removes() {
+            List<String> result;
+            String storage;
+
+            result = new ArrayList<>();
+            for (String origin : existing.keySet()) {
+                storage = origin.substring(0, origin.indexOf(Field.ORIGIN_DELIMITER));
+                if (!failed.containsKey(storage)) {
+                    environment.console().info.println("D " + origin);
+                    result.add(origin);
+                }
+            }
+            return result;
+        }
+
+        public void checkScans() throws IOException {
+            IOException result;
+
+            if (failed.isEmpty()) {
+                return;
+            }
+            result = new IOException("scanning failed: " + String.join(", ", failed.keySet()));
+            for (Throwable e : failed.values()) {
+                result.addSuppressed(e);
+            }
+            throw result;
+        }
+
+        private void startLoaders() {
+            Thread loader;
+
+            loadersStarted = true;
+            running.set(loaders);
+            for (int i = 0; i < loaders; i++) {
+                loader = new Thread(this::load, "Loader-" + i);
+                loader.setDaemon(true);
+                loader.start();
+            }
+        }
+
+        /** loader thread: turns descriptors into documents until the end of the queue */
+        private void load() {
+            Descriptor descriptor;
+            Document document;
+
+            try {
+                while (true) {
+                    descriptor = take(src);
+                    if (descriptor == ErrorDescriptor.END_OF_QUEUE) {
+                        put(src, descriptor); // to terminate other loaders
+                        break;
+                    }
+                    if (aborted || loaderException.get() != null) {
+                        continue; // consume remaining to avoid blocking scans
+                    }
+                    try {
+                        document = document(descriptor);
+                    } catch (RuntimeException e) {
+                        loaderException.compareAndSet(null, e);
+                        continue;
+                    }
+                    if (document != null) {
+                        put(documents, document);
+                    }
+                }
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    put(documents, END_OF_DOCUMENTS);
+                }
+            }
+        }
+
+        /** @return null if descriptor is unmodified or cannot be loaded */
+        private Document document(Descriptor descriptor) {
+            Project project;
+            Console console;
+            String existingRevision;
+
+            console = environment.console();
+            count.incrementAndGet();
+            existingRevision = existing.remove(descriptor.getStorage() + Field.ORIGIN_DELIMITER + descriptor.getPath());
+            if (descriptor.getRevision().equals(existingRevision)) {
+                console.info.println("  " + descriptor.getPath());
+                return null;
+            }
+            if (descriptor instanceof UnchangedDescriptor) {
+                // revision unknown, e.g. because the origin was already passed in this run; there's nothing to load
+                console.verbose.println("skipped unchanged descriptor with unknown revision: " + descriptor.getPath());
+                return null;
+            }
+            try {
+                project = descriptor.load();
+            } catch (IOException e) {
+                console.error.println(e.getMessage());
+                e.printStackTrace(console.verbose);
+                errors.incrementAndGet();
+                incomplete.add(descriptor.getStorage());
+                return null;
+            }
+            console.info.println((existingRevision == null ? "A " : "U ") + project.origin());
+            return Field.document(project);
+        }
+
         @Override
         public boolean hasNext() {
             return current != null;
@@ -186,37 +492,57 @@ public class Index extends Base {
         }
 
         private Document iter() {
-            Descriptor descriptor;
-            Project project;
-            Console console;
-            String existingRevision;
+            Document document;
 
-            console = environment.console();
-            while (true) {
-                try {
-                    descriptor = src.take();
-                } catch (InterruptedException e) {
-                    continue; // TODO: ok so?
+            if (done) {
+                return null;
+            }
+            document = take(documents);
+            if (document == END_OF_DOCUMENTS) {
+                done = true;
+                return null;
+            }
+            return document;
+        }
+
+        /** does not give up on interrupts because the queue protocol has to complete; the interrupt is restored afterwards */
+        private static <T> T take(BlockingQueue<T> queue) {
+            boolean interrupted;
+
+            interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return queue.take();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
                 }
-                if (descriptor == ErrorDescriptor.END_OF_QUEUE) {
-                    return null;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
                 }
-                count++;
-                existingRevision = existing.remove(descriptor.getStorage() + Field.ORIGIN_DELIMITER + descriptor.getPath());
-                if (descriptor.getRevision().equals(existingRevision)) {
-                    console.info.println("  " + descriptor.getPath());
-                    continue;
+            }
+        }
+
+        /** see take */
+        private static <T> void put(BlockingQueue<T> queue, T element) {
+            boolean interrupted;
+
+            interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        queue.put(element);
+                        return;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
                 }
-                try {
-                    project = descriptor.load();
-                } catch (IOException e) {
-                    console.error.println(e.getMessage());
-                    e.printStackTrace(console.verbose);
-                    errors++;
-                    continue;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
                 }
-                console.info.println((existingRevision == null ? "A " : "U ") + project.origin());
-                return Field.document(project);
             }
         }
 
@@ -226,7 +552,9 @@ public class Index extends Base {
         }
 
         public void summary() {
-            environment.console().info.println((count - errors) + "/" + count + " poms processed successfully.");
+            environment.console().info.println((count.get() - errors.get()) + "/" + count.get() + " poms processed successfully.");
+            environment.console().verbose.println(environment.httpCache().summary());
+            environment.console().verbose.println(environment.pomReader().summary());
         }
     }
 
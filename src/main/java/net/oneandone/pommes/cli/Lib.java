@@ -79,8 +79,8 @@ public class Lib {
         return properties.checkouts.join(project.scm.directory());
     }
 
-    public Database loadDatabase() throws IOException {
-        return Database.load(home.join("database"));
+    public Database loadDatabase(Console console) throws IOException {
+        return Database.load(home.join("database"), console);
     }
 
     private static FileNode configFile(FileNode home) {
@@ -94,4 +94,12 @@ public class Lib {
     public FileNode logs() {
         return home.join("logs");
     }
+
+    public FileNode httpCache() {
+        return home.join("http-cache");
+    }
+
+    public FileNode checkoutCache() {
+        return home.join("checkouts");
+    }
 }
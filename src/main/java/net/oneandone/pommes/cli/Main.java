@@ -37,14 +37,20 @@ public class Main {
                 + "  'pommes' ['-v'|'-e'] command args*\n"
                 + "\n"
                 + "commands\n"
-                + "  'find' ('-output' str)? '-fold'? query ('-' format* | '-json' | '-dump' | '-'MACRO)? \n"
+                + "  'find' ('-output' str)? '-fold'? '-explain'? ('-limit' n)? ('-offset' n)? ('-sort' coordinates)? ('-group' coordinate)?\n"
+                + "         query ('-' format* | '-json' | '-dump' | '-'MACRO)? \n"
                 + "                        print projects matching this query;\n"
                 + "                        append '-json' to print json, '-dump' to print json without formatting;\n"
                 + "                        format is a string with placeholders: %c is replace be the current checkout\n"
                 + "                        and %FIELD_ID is replaced by the respective field;\n"
                 + "                        placeholders can be followed by angle brackets to filter for\n"
                 + "                        the enclosed substring or variables;\n"
-                + "                        output is a file or URL to write results to, default is the console.\n"
+                + "                        output is a file or URL to write results to, default is the console;\n"
+                + "                        '-explain' prints the Lucene queries with estimated costs before the results;\n"
+                + "                        '-offset' skips the first n projects, '-limit' prints at most n projects (0 for all);\n"
+                + "                        '-sort' orders projects by comma-separated coordinates like 'a.g,a.v' instead of index order;\n"
+                + "                        '-group' prints the number of matching projects per value of a coordinate like 'd.g'\n"
+                + "                        instead of the projects.\n"
                 + "  'checkout' query      checkout matching projects; skips existing checkouts;\n"
                 + "                        asks before doing any checkout\n"
                 + "  'goto' query          offer selection of matching projects, checks it out when necessary,\n"
@@ -55,10 +61,16 @@ public class Main {
                 + "                        '!' - checkout in wrong directory\n"
                 + "                        '#' - error checking this checkout\n"
           /* TODO -- clarify
-                + "  'remove' root?        remove checkouts under the specified root directory;\n"
+                + "  'remove' ('-parallel' n)? root?\n"
+                + "                        remove checkouts under the specified root directory;\n"
                 + "                        offers selection before changing anything on disk;\n"
-                + "                        checkouts with modifications are marked in the list\n" */
-                + "  'index' {storage}     re-index the specified storages (default: all).\n"
+                + "                        checkouts with modifications are marked in the list;\n"
+                + "                        parallel is the number of checkouts checked concurrently (default: " + Remove.DEFAULT_PARALLEL + ")\n" */
+                + "  'index' ('-loaders' n)? ['-full'] {storage}\n"
+                + "                        re-index the specified storages (default: all) concurrently;\n"
+                + "                        loaders is the number of threads loading descriptors (default: " + Index.DEFAULT_LOADERS + ");\n"
+                + "                        gitlab storages only list repositories changed since the last\n"
+                + "                        successful run unless full is specified\n"
                 + "  'setup' ['-batch'] root? {name'='value}\n"
                 + "                        sets up pommes in the specified directory (default: ~/" + Lib.DEFAULT_ROOT + ")\n"
                 + "                        creates '" + Lib.DIR + "' directory inside with initial configuration containing name/values as storages; \n"
@@ -74,7 +86,8 @@ public class Main {
                 + "  index     = NUMBER\n"
                 + "  and       = term ('+' term)*\n"
                 + "  term      = field | lucene\n"
-                + "  field     = '!'? (FIELD_ID* match)? STR ; match on one of the specified fields (or 'ao' if not specified)\n"
+                + "  field     = '!'? (FIELD_ID* coord? match)? STR ; match on one of the specified fields (or 'ao' if not specified)\n"
+                + "  coord     = '.' ('g' | 'a' | 'v')     ; group, artifact or version of parent, artifact or dependency fields\n"
                 + "  match     = ':' | '^' | '%' | '='     ; substring, prefix, suffix or string match\n"
                 + "  lucene    = '§' STR                   ; STR in Lucene query Syntax: "
                   + "https://lucene.apache.org/core/6_0_1/queryparser/org/apache/lucene/queryparser/classic/QueryParser.html\n"
@@ -89,11 +102,11 @@ public class Main {
           cli.add(Setup.class, "setup -batch nameEqUrl*");
           cli.begin(Environment.class);
             cli.add(Checkout.class, "checkout query*");
-            cli.add(Remove.class, "remove root?=.");
+            cli.add(Remove.class, "remove -parallel=" + Remove.DEFAULT_PARALLEL + " root?=.");
             cli.add(Status.class, "st root?=.");
             cli.add(Goto.class, "goto -x=false query*");
-            cli.add(Index.class, "index storage*");
-            cli.add(Find.class, "find -output=null -fold queryOrFormat* { arg*(queryOrFormat)}");
+            cli.add(Index.class, "index -loaders=" + Index.DEFAULT_LOADERS + " -full storage*");
+            cli.add(Find.class, "find -output=null -fold -explain -limit=0 -offset=0 -sort=null -group=null queryOrFormat* { arg*(queryOrFormat)}");
 
         System.exit(cli.run(args));
     }
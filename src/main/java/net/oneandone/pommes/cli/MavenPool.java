@@ -0,0 +1,86 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.cli;
+
+import net.oneandone.maven.summon.api.Config;
+import net.oneandone.maven.summon.api.Maven;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded pool of Maven instances. Maven instances are not thread-safe, so each instance is confined to one thread at a time.
+ * Instances are created on demand, i.e. only if all existing ones are in use; they share the local repository.
+ */
+public class MavenPool {
+    public static final int DEFAULT_SIZE = 4;
+
+    @FunctionalInterface
+    public interface Action<T, E extends Exception> {
+        T run(Maven maven) throws E;
+    }
+
+    /** one permit per instance that may be in use; a failed creation returns its permit, so waiting threads try again */
+    private final Semaphore permits;
+    private final Queue<Maven> idle;
+
+    public MavenPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        this.permits = new Semaphore(size);
+        this.idle = new ConcurrentLinkedQueue<>();
+    }
+
+    /** runs the action with a Maven instance nobody else uses in the meantime; blocks if all instances are in use */
+    public <T, E extends Exception> T run(Action<T, E> action) throws E, IOException {
+        Maven maven;
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("waiting for maven instance");
+        }
+        try {
+            maven = idle.poll();
+            if (maven == null) {
+                // instances in use plus idle ones never exceed the number of permits
+                maven = create();
+            }
+            try {
+                return action.run(maven);
+            } finally {
+                idle.add(maven);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** package-private for tests */
+    Maven create() throws IOException {
+        Config config;
+
+        config = new Config();
+        config.allowExtensions().allowAll();
+        config.allowPomRepositories().allowAll();
+        return config.build();
+    }
+}
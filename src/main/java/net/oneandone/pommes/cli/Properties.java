@@ -15,6 +15,7 @@
  */
 package net.oneandone.pommes.cli;
 
+import net.oneandone.pommes.storage.HttpCache;
 import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.util.Separator;
 
@@ -51,6 +52,9 @@ public class Properties {
         String formatPrefix = "format.";
         String storagePrefix = "storage.";
         String giteaKey;
+        int httpCache;
+        boolean fastPoms;
+        int mavenInstances;
         Map<String, String> props;
         Map<String, List<String>> queries;
         Map<String, String> formats;
@@ -58,6 +62,9 @@ public class Properties {
         FileNode checkouts;
 
         giteaKey = null;
+        httpCache = HttpCache.DEFAULT_MEGABYTES;
+        fastPoms = true;
+        mavenInstances = MavenPool.DEFAULT_SIZE;
         queries = new HashMap<>();
         formats = new HashMap<>();
         storages = new LinkedHashMap<>();
@@ -66,6 +73,32 @@ public class Properties {
         for (String key : props.keySet()) {
             if (key.equals("gitea.key")) {
                 giteaKey = props.get(key);
+            } else if (key.equals("http.cache")) {
+                try {
+                    httpCache = Integer.parseInt(props.get(key));
+                } catch (NumberFormatException e) {
+                    throw new IOException("http.cache: megabytes expected, got " + props.get(key));
+                }
+            } else if (key.equals("pom.reader")) {
+                switch (props.get(key)) {
+                    case "fast":
+                        fastPoms = true;
+                        break;
+                    case "maven":
+                        fastPoms = false;
+                        break;
+                    default:
+                        throw new IOException("pom.reader: 'fast' or 'maven' expected, got " + props.get(key));
+                }
+            } else if (key.equals("maven.instances")) {
+                try {
+                    mavenInstances = Integer.parseInt(props.get(key));
+                } catch (NumberFormatException e) {
+                    throw new IOException("maven.instances: number expected, got " + props.get(key));
+                }
+                if (mavenInstances < 1) {
+                    throw new IOException("maven.instances: expected to be positive, got " + mavenInstances);
+                }
             } else if (key.startsWith(queryPrefix)) {
                 queries.put(key.substring(queryPrefix.length()), Separator.SPACE.split(props.get(key)));
             } else if (key.startsWith(formatPrefix)) {
@@ -79,7 +112,7 @@ public class Properties {
         if (storages.isEmpty()) {
             throw new IOException("missing storages: " + file);
         }
-        return new Properties(checkouts, giteaKey, queries, formats, storages, storages.keySet().iterator().next());
+        return new Properties(checkouts, giteaKey, httpCache, fastPoms, mavenInstances, queries, formats, storages, storages.keySet().iterator().next());
     }
 
     public static Map<String, String> readSequencedProperties(FileNode file) throws IOException {
@@ -101,6 +134,15 @@ public class Properties {
 
     public final FileNode checkouts;
     public final String giteaKey;
+
+    /** max size of the http cache in megabytes; 0 to disable */
+    public final int httpCache;
+
+    /** true to read poms with StAX and use Maven only if necessary, false to always use Maven */
+    public final boolean fastPoms;
+
+    /** max number of Maven instances to load poms concurrently */
+    public final int mavenInstances;
     private Map<String, List<String>> queries;
     private Map<String, String> formats;
 
@@ -108,10 +150,13 @@ public class Properties {
     public final Map<String, String> storages;
     public final String defaultStorage;
 
-    public Properties(FileNode checkouts, String giteaKey, Map<String, List<String>> queries,
-                      Map<String, String> formats, Map<String, String> storages, String defaultStorage) {
+    public Properties(FileNode checkouts, String giteaKey, int httpCache, boolean fastPoms, int mavenInstances,
+                      Map<String, List<String>> queries, Map<String, String> formats, Map<String, String> storages, String defaultStorage) {
         this.checkouts = checkouts;
         this.giteaKey = giteaKey;
+        this.httpCache = httpCache;
+        this.fastPoms = fastPoms;
+        this.mavenInstances = mavenInstances;
         this.queries = queries;
         this.formats = formats;
         this.storages = storages;
@@ -21,15 +21,27 @@ import net.oneandone.pommes.checkout.Problem;
 import net.oneandone.pommes.scm.Scm;
 import net.oneandone.sushi.fs.file.FileNode;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Remove extends Base {
+    public static final int DEFAULT_PARALLEL = 8;
+
+    private final int parallel;
     private final FileNode directory;
 
-    public Remove(Environment environment, FileNode directory) {
+    public Remove(Environment environment, int parallel, FileNode directory) {
         super(environment);
+        if (parallel < 1) {
+            throw new ArgumentException("invalid number of parallel checks: " + parallel);
+        }
+        this.parallel = parallel;
         this.directory = directory;
     }
 
@@ -37,23 +49,49 @@ public class Remove extends Base {
     public void run(Scope scopeNotUsed) throws Exception {
         Map<FileNode, Scm> checkouts;
         List<Action> removes;
-        FileNode checkout;
-        Scm scm;
+        ExecutorService executor;
+        List<Future<Action>> futures;
 
-        checkouts = Scm.scanCheckouts(directory, environment.excludes());
+        checkouts = Scm.scanCheckouts(directory, environment.excludes(), environment.checkoutCache());
         if (checkouts.isEmpty()) {
             throw new ArgumentException("no checkouts under " + directory);
         }
         removes = new ArrayList<>();
-        for (Map.Entry<FileNode, Scm> entry : checkouts.entrySet()) {
-            checkout = entry.getKey();
-            scm = entry.getValue();
-            if (scm.isAlive(checkout)) {
-                removes.add(net.oneandone.pommes.checkout.Remove.create(checkout));
-            } else {
-                removes.add(new Problem(checkout, checkout + ": checkout is not alive"));
+        executor = Executors.newFixedThreadPool(Math.min(parallel, checkouts.size()));
+        try {
+            futures = new ArrayList<>(checkouts.size());
+            for (Map.Entry<FileNode, Scm> entry : checkouts.entrySet()) {
+                futures.add(executor.submit(() -> check(entry.getKey(), entry.getValue())));
+            }
+            for (Future<Action> future : futures) {
+                removes.add(get(future));
             }
+        } finally {
+            executor.shutdownNow();
         }
         runAll(removes);
     }
+
+    /** runs git or svn processes, thus multiple checkouts are checked in parallel */
+    private static Action check(FileNode checkout, Scm scm) throws IOException {
+        if (scm.isAlive(checkout)) {
+            return net.oneandone.pommes.checkout.Remove.create(checkout);
+        } else {
+            return new Problem(checkout, checkout + ": checkout is not alive");
+        }
+    }
+
+    private static Action get(Future<Action> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
 }
@@ -15,15 +15,19 @@
  */
 package net.oneandone.pommes.cli;
 
+import net.oneandone.pommes.database.Coordinate;
 import net.oneandone.pommes.database.Database;
 import net.oneandone.pommes.database.Field;
 import net.oneandone.pommes.database.PommesQuery;
 import net.oneandone.pommes.database.Project;
 import net.oneandone.pommes.database.Variables;
 import net.oneandone.pommes.search.CentralSearch;
+import org.apache.lucene.search.Sort;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Scope {
     private final String defaultStorage;
@@ -49,6 +53,21 @@ public class Scope {
         return Field.projects(database.query(query));
     }
 
+    /** @return number of projects passed to the handler */
+    public int queryDatabase(List<String> queryStrings, Set<String> fields, Sort sort, int offset, int limit, PommesQuery.Handler handler)
+            throws IOException {
+        return database.query(PommesQuery.parse(queryStrings, defaultStorage, variables), fields, sort, offset, limit, handler);
+    }
+
+    /** @return number of matching projects per coordinate value, sorted by value */
+    public Map<String, Integer> groupDatabase(List<String> queryStrings, Field field, Coordinate coordinate) throws IOException {
+        return database.group(PommesQuery.parse(queryStrings, defaultStorage, variables), field, coordinate);
+    }
+
+    public String explainDatabase(List<String> queryStrings) throws IOException {
+        return database.explain(PommesQuery.parse(queryStrings, defaultStorage, variables));
+    }
+
     public List<Project> queryCentral(List<String> queryStrings) throws IOException {
         PommesQuery query;
 
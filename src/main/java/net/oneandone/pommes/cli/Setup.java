@@ -87,7 +87,7 @@ public class Setup {
         Lib.create(world, root, console, storages);
         environment = new Environment(console, world);
         console.info.println("initial indexing ...");
-        new Index(environment, new ArrayList<>()).run();
+        new Index(environment, Index.DEFAULT_LOADERS, false, new ArrayList<>()).run();
         console.info.println("indexing done");
         console.info.println();
         console.info.println("TODO for YOU:");
@@ -53,7 +53,7 @@ public class Status extends Base {
         FileNode found;
         Step step;
 
-        checkouts = Scm.scanCheckouts(directory, environment.excludes());
+        checkouts = Scm.scanCheckouts(directory, environment.excludes(), environment.checkoutCache());
         if (checkouts.isEmpty()) {
             throw new ArgumentException("no checkouts in " + directory);
         }
@@ -62,7 +62,7 @@ public class Status extends Base {
         for (Map.Entry<FileNode, Scm> entry : checkouts.entrySet()) {
             found = entry.getKey();
             try {
-                step = Step.create(environment, scope.getDatabase(), found, entry.getValue());
+                step = Step.create(environment, scope.getDatabase(), found, environment.checkoutCache().url(found, entry.getValue()));
             } catch (IOException e) {
                 step = new Step("#", e.getMessage(), null);
                 if (console.getVerbose()) {
@@ -77,6 +77,7 @@ public class Status extends Base {
                 console.info.println(step.toString(Integer.toString(id)));
             }
         }
+        environment.checkoutCache().save();
         for (FileNode u : unknown(directory, checkouts.keySet(), environment.excludes())) {
             console.info.println(new Step("?", u + " (normal directory)", null));
         }
@@ -162,15 +163,13 @@ public class Status extends Base {
     }
 
     public static class Step {
-        public static Step create(Environment environment, Database database, FileNode found, Scm scm) throws IOException {
+        public static Step create(Environment environment, Database database, FileNode found, ScmUrl scmUrl) throws IOException {
             List<Project> foundProjects;
-            ScmUrl scmUrl;
             Project newPom;
             Descriptor probed;
             FileNode expected;
             Relocation relocation;
 
-            scmUrl = scm.getUrl(found);
             foundProjects = database.projectsByScm(scmUrl);
             if (foundProjects.isEmpty()) {
                 probed = FileStorage.probe(environment, "unused", found);
@@ -0,0 +1,55 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.database;
+
+/** Part of the coordinates stored in parent, artifact and dependency fields. */
+public enum Coordinate {
+    GROUP, ARTIFACT, VERSION;
+
+    public final char id;
+    private final String dbname;
+
+    Coordinate() {
+        this.dbname = name().toLowerCase();
+        this.id = dbname.charAt(0);
+    }
+
+    public String dbname() {
+        return dbname;
+    }
+
+    public String get(Gav gav) {
+        switch (this) {
+            case GROUP:
+                return gav.groupId;
+            case ARTIFACT:
+                return gav.artifactId;
+            case VERSION:
+                return gav.version;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    public static Coordinate forId(char c) {
+        for (Coordinate coordinate : values()) {
+            if (coordinate.id == c) {
+                return coordinate;
+            }
+        }
+        throw new IllegalStateException("unknown coordinate id: " + c);
+    }
+}
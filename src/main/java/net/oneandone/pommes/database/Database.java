@@ -15,17 +15,21 @@
  */
 package net.oneandone.pommes.database;
 
+import net.oneandone.inline.Console;
 import net.oneandone.pommes.scm.ScmUrl;
 import net.oneandone.sushi.fs.file.FileNode;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
@@ -33,133 +37,308 @@ import org.apache.lucene.store.FSDirectory;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
+/**
+ * Lucene index with one writer per session: changes are batched until they are committed explicitly; closing discards
+ * uncommitted changes. Searches use near-real-time readers once there's a writer, so they see uncommitted changes without
+ * re-opening the index.
+ */
 public class Database implements AutoCloseable {
-    public static Database load(FileNode directory) throws IOException {
-        boolean create;
+    /** version of the fields indexed; stored with every commit */
+    public static final String SCHEMA = "4";
+    private static final String SCHEMA_KEY = "schema";
+
+    /** number of documents indexed between commits, so long runs keep their progress if they are killed */
+    private static final int CHECKPOINT = 1000;
+
+    /**
+     * A database with a different schema is re-created: it's just an index of the storages, "pommes index" fills it again.
+     * @param console to report re-creation
+     */
+    public static Database load(FileNode directory, Console console) throws IOException {
         Database result;
+        String schema;
 
-        create = !directory.exists();
-        if (create) {
-            directory.mkdirs();
+        if (directory.exists()) {
+            result = new Database(directory);
+            schema = result.schemaOpt();
+            if (SCHEMA.equals(schema)) {
+                return result;
+            }
+            result.close();
+            directory.deleteTree();
+            console.info.println("database format changed (" + (schema == null ? "unknown" : schema) + " -> " + SCHEMA
+                    + "), the database was reset; run 'pommes index' to fill it again");
         }
+        directory.mkdirs();
         result = new Database(directory);
-        if (create) {
-            result.index(Collections.emptyIterator());
-        }
+        result.index(Collections.emptyIterator(), Collections::emptyList, () -> Map.of(SCHEMA_KEY, SCHEMA));
+        result.commit();
+        result.closeWriter(); // to not lock the index for read-only commands
         return result;
     }
 
+    private String schemaOpt() throws IOException {
+        try {
+            return getCommitData(SCHEMA_KEY);
+        } catch (IndexNotFoundException e) {
+            return null;
+        }
+    }
+
     /** Lucene index directory */
     private final FileNode directory;
 
     /** created on demand */
     private Directory indexLuceneDirectory;
 
+    /** created on the first change, to not lock the index for read-only commands */
+    private IndexWriter writer;
+
     /** created on demand */
-    private IndexSearcher searcher;
+    private SearcherManager searchers;
 
     /**
      * @param directory valid lucene directory or none-existing directory
      */
     public Database(FileNode directory) {
         this.directory = directory;
-        this.searcher = null;
+        this.writer = null;
+        this.searchers = null;
     }
 
-    private Directory getIndexLuceneDirectory() throws IOException {
+    private synchronized Directory getIndexLuceneDirectory() throws IOException {
         if (indexLuceneDirectory == null) {
             indexLuceneDirectory = FSDirectory.open(directory.toPath());
         }
         return indexLuceneDirectory;
     }
 
-    public void close() throws IOException {
-        if (indexLuceneDirectory != null) {
-            indexLuceneDirectory.close();
-            indexLuceneDirectory = null;
+    private synchronized IndexWriter writer() throws IOException {
+        IndexWriterConfig config;
+
+        if (writer == null) {
+            // no analyzer, I have String fields only
+            config = new IndexWriterConfig(new StandardAnalyzer());
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            config.setCommitOnClose(false);
+            writer = new IndexWriter(getIndexLuceneDirectory(), config);
+            closeSearchers(); // switch to near-real-time searchers
         }
-        if (searcher != null) {
-            searcher.getIndexReader().close();
-            searcher = null;
+        return writer;
+    }
+
+    private synchronized void closeSearchers() throws IOException {
+        if (searchers != null) {
+            searchers.close(); // searchers in use stay valid until they are released
+            searchers = null;
         }
     }
 
-    //-- change the index
+    /** commits pending changes; no-op if there are none */
+    public synchronized void commit() throws IOException {
+        if (writer != null) {
+            writer.commit();
+        }
+    }
 
-    public void remove(PommesQuery query) throws IOException, QueryNodeException {
-        IndexWriter writer;
-        IndexWriterConfig config;
+    /** discards uncommitted changes */
+    public synchronized void close() throws IOException {
+        try {
+            closeWriter();
+        } finally {
+            if (indexLuceneDirectory != null) {
+                indexLuceneDirectory.close();
+                indexLuceneDirectory = null;
+            }
+        }
+    }
 
-        close();
-        config =  new IndexWriterConfig(new StandardAnalyzer());
-        config.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
-        writer = new IndexWriter(getIndexLuceneDirectory(), config);
-        query.delete(writer);
-        writer.close();
+    /** releases the write lock and discards uncommitted changes; the next change opens a new writer */
+    private synchronized void closeWriter() throws IOException {
+        closeSearchers(); // back to searchers on the last commit
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+            }
+        }
     }
 
-    public void removeOrigins(Collection<String> origins) throws IOException {
-        IndexWriter writer;
-        IndexWriterConfig config;
+    /** discards all changes since the last commit */
+    public synchronized void rollback() throws IOException {
+        closeSearchers();
+        if (writer != null) {
+            try {
+                writer.rollback();
+            } finally {
+                writer = null;
+            }
+        }
+    }
+
+    //-- change the index
+
+    private static Term[] originTerms(Collection<String> origins) {
         Term[] terms;
+        int i;
 
-        if (origins.isEmpty()) {
-            return;
-        }
         terms = new Term[origins.size()];
-        int i = 0;
+        i = 0;
         for (String origin : origins) {
             terms[i++] = Field.ORIGIN.term(origin);
         }
-
-        close();
-        config =  new IndexWriterConfig(new StandardAnalyzer());
-        config.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
-        writer = new IndexWriter(getIndexLuceneDirectory(), config);
-        writer.deleteDocuments(terms);
-        writer.close();
+        return terms;
     }
 
     public void list(String storage, Map<String, String> result) throws IOException {
-        TopDocs search;
-        Document document;
+        search(true, searcher -> {
+            TopDocs search;
+            Document document;
 
-        if (searcher == null) {
-            searcher = new IndexSearcher(DirectoryReader.open(getIndexLuceneDirectory()));
-        }
-        search = searcher.search(Field.ORIGIN.query(Match.PREFIX, storage + Field.ORIGIN_DELIMITER), Integer.MAX_VALUE);
-        for (ScoreDoc scoreDoc : search.scoreDocs) {
-            document = searcher.getIndexReader().storedFields().document(scoreDoc.doc);
-            result.put(Field.ORIGIN.get(document), Field.REVISION.get(document));
-        }
+            search = searcher.search(Field.ORIGIN.query(Match.PREFIX, storage + Field.ORIGIN_DELIMITER), Integer.MAX_VALUE);
+            for (ScoreDoc scoreDoc : search.scoreDocs) {
+                document = searcher.getIndexReader().storedFields().document(scoreDoc.doc);
+                result.put(Field.ORIGIN.get(document), Field.REVISION.get(document));
+            }
+            return null;
+        });
     }
 
     public void index(Iterator<Document> iterator) throws IOException {
-        IndexWriter writer;
-        IndexWriterConfig config;
+        index(iterator, Collections::emptyList, Collections::emptyMap);
+    }
+
+    /**
+     * Adds or updates all documents, then removes the origins returned by removes. Commits every CHECKPOINT documents,
+     * the remaining changes are left to the caller. If this method fails, all changes since the last commit are discarded.
+     *
+     * @param removes invoked after the iterator is exhausted
+     * @param commitData invoked after removes, merged into the commit data of the previous commit
+     */
+    public void index(Iterator<Document> iterator, Supplier<Collection<String>> removes, Supplier<Map<String, String>> commitData)
+            throws IOException {
+        IndexWriter current;
         Document doc;
+        Collection<String> origins;
+        Map<String, String> data;
+        int count;
+
+        current = writer();
+        count = 0;
+        try {
+            while (iterator.hasNext()) {
+                doc = iterator.next();
+                current.updateDocument(Field.ORIGIN.term(Field.ORIGIN.get(doc)), doc);
+                count++;
+                if (count % CHECKPOINT == 0) {
+                    current.commit();
+                }
+            }
+            origins = removes.get();
+            if (!origins.isEmpty()) {
+                current.deleteDocuments(originTerms(origins));
+            }
+            data = liveCommitData(current);
+            data.putAll(commitData.get());
+            current.setLiveCommitData(data.entrySet());
+        } catch (IOException | RuntimeException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    private static Map<String, String> liveCommitData(IndexWriter writer) {
+        Map<String, String> result;
 
-        close();
-        // no analyzer, I have String fields only
-        config =  new IndexWriterConfig(new StandardAnalyzer());
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-        writer = new IndexWriter(getIndexLuceneDirectory(), config);
-        while (iterator.hasNext()) {
-            doc = iterator.next();
-            writer.updateDocument(Field.ORIGIN.term(Field.ORIGIN.get(doc)), doc);
+        result = new HashMap<>();
+        if (writer.getLiveCommitData() != null) {
+            for (Map.Entry<String, String> entry : writer.getLiveCommitData()) {
+                result.put(entry.getKey(), entry.getValue());
+            }
         }
-        writer.close();
+        return result;
+    }
+
+    /** @return value stored with the last commit or set by a pending index call, null if not found */
+    public String getCommitData(String key) throws IOException {
+        synchronized (this) {
+            if (writer != null) {
+                return liveCommitData(writer).get(key);
+            }
+        }
+        return search(false, searcher -> ((DirectoryReader) searcher.getIndexReader()).getIndexCommit().getUserData().get(key));
     }
 
     public List<Document> query(PommesQuery pq) throws IOException {
-        if (searcher == null) {
-            searcher = new IndexSearcher(DirectoryReader.open(getIndexLuceneDirectory()));
+        return search(true, pq::find);
+    }
+
+    /**
+     * @param sort null for index order
+     * @return number of documents passed to the handler
+     */
+    public int query(PommesQuery pq, Set<String> fields, Sort sort, int offset, int limit, PommesQuery.Handler handler) throws IOException {
+        return search(true, searcher -> pq.find(searcher, fields, sort, offset, limit, handler));
+    }
+
+    /** @return matching projects per value of the specified coordinate, without loading stored fields */
+    public Map<String, Integer> group(PommesQuery pq, Field field, Coordinate coordinate) throws IOException {
+        return search(true, searcher -> pq.group(searcher, field, coordinate));
+    }
+
+    public String explain(PommesQuery pq) throws IOException {
+        return search(true, pq::explain);
+    }
+
+    @FunctionalInterface
+    private interface Search<T> {
+        T run(IndexSearcher searcher) throws IOException;
+    }
+
+    /** @param refresh true to see all changes so far, false to accept the state of the previous refresh */
+    private <T> T search(boolean refresh, Search<T> search) throws IOException {
+        SearcherManager manager;
+        IndexSearcher searcher;
+
+        synchronized (this) { // because writer() replaces the manager
+            if (searchers == null) {
+                searchers = writer != null ? new SearcherManager(writer, null) : new SearcherManager(getIndexLuceneDirectory(), null);
+            } else if (refresh) {
+                searchers.maybeRefreshBlocking();
+            }
+            manager = searchers;
+            searcher = manager.acquire();
+        }
+        try {
+            return search.run(searcher);
+        } finally {
+            manager.release(searcher);
         }
-        return pq.find(searcher);
+    }
+
+    /**
+     * Does not refresh: loader threads look up parent poms while the indexer adds documents, and a near-real-time reopen
+     * for every lookup would flush a segment each time.
+     * @return null if not found; the first one if there are multiple projects with this artifact
+     */
+    public Project projectByArtifactOpt(Gav artifact) throws IOException {
+        return search(false, searcher -> {
+            TopDocs search;
+
+            search = searcher.search(new TermQuery(Field.ARTIFACT.term(artifact.toGavString())), 1);
+            if (search.scoreDocs.length == 0) {
+                return null;
+            }
+            return Field.project(searcher.getIndexReader().storedFields().document(search.scoreDocs[0].doc));
+        });
     }
 
     public List<Project> projectsByScm(ScmUrl scmUrl) throws IOException {
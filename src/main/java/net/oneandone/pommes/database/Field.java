@@ -17,48 +17,122 @@ package net.oneandone.pommes.database;
 
 import net.oneandone.pommes.scm.Scm;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedSetSortField;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.BytesRef;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public enum Field {
     /**
      * Mandatory. The full uri used to load the project for indexing. Full means the uri pointing to the pom file, not to trunk or a branch directory.
      * Used as a unique identifier for the document.
      */
-    ORIGIN("Where this project was loaded from. Used as unique identifier. <storageName>:<path>"),
+    ORIGIN(false, false, true, false, "Where this project was loaded from. Used as unique identifier. <storageName>:<path>"),
 
     REVISION("Last modified timestamp or content hash of this pom. Used to detect changes."),
-    PARENT(true, false, "Coordinates of the parent project."),
-    ARTIFACT("Coordinates of this project."),
-    DEP(true, true, "Coordinates of project dependencies."),
-    SCM(true, false, "Scm location for this project. Where to get the sources."),
-    URL(true, false, "Url for this project. Where to read about the project.");
+    PARENT(true, false, true, true, "Coordinates of the parent project."),
+    ARTIFACT(false, false, true, true, "Coordinates of this project."),
+    DEP(true, true, true, true, "Coordinates of project dependencies."),
+    SCM(true, false, true, false, "Scm location for this project. Where to get the sources."),
+    URL(true, false, true, false, "Url for this project. Where to read about the project.");
 
     public static final char ORIGIN_DELIMITER = ':';
 
+    /** length of the n-grams indexed for substring queries */
+    public static final int NGRAM = 3;
+
     private final boolean optional;
     private final boolean list;
+    /** true to index n-grams and the reversed value into shadow fields, so substring and suffix queries need no leading wildcard */
+    private final boolean shadows;
+    /** true to index group, artifact and version into keyword fields with doc values */
+    private final boolean coordinates;
     public final String description;
     private final String dbname;
 
     Field(String description) {
-        this(false, false, description);
+        this(false, false, false, false, description);
     }
 
-    Field(boolean optional, boolean list, String description) {
+    Field(boolean optional, boolean list, boolean shadows, boolean coordinates, String description) {
         this.optional = optional;
         this.list = list;
+        this.shadows = shadows;
+        this.coordinates = coordinates;
         this.description = description;
         this.dbname = name().toLowerCase();
     }
 
     public void add(Document document, String value) {
+        Set<String> grams;
+
         document.add(new StringField(dbname, value, org.apache.lucene.document.Field.Store.YES));
+        if (shadows) {
+            document.add(new StringField(reversedName(), reverse(value), org.apache.lucene.document.Field.Store.NO));
+            grams = new HashSet<>();
+            for (int i = 0; i + NGRAM <= value.length(); i++) {
+                if (grams.add(value.substring(i, i + NGRAM))) {
+                    document.add(new StringField(ngramName(), value.substring(i, i + NGRAM), org.apache.lucene.document.Field.Store.NO));
+                }
+            }
+        }
+    }
+
+    public void add(Document document, Gav gav) {
+        String name;
+        BytesRef value;
+
+        if (!coordinates) {
+            throw new IllegalStateException(dbname);
+        }
+        for (Coordinate coordinate : Coordinate.values()) {
+            name = coordinateName(coordinate);
+            value = new BytesRef(coordinate.get(gav));
+            document.add(new StringField(name, value, org.apache.lucene.document.Field.Store.NO));
+            document.add(list ? new SortedSetDocValuesField(name, value) : new SortedDocValuesField(name, value));
+        }
+        add(document, gav.toGavString());
+    }
+
+    public boolean hasCoordinates() {
+        return coordinates;
+    }
+
+    /** name of the keyword field for this coordinate; it has sorted doc values, sorted set doc values if the field is a list */
+    public String coordinateName(Coordinate coordinate) {
+        return dbname + "." + coordinate.dbname();
+    }
+
+    /** @return sort by this coordinate; projects with multiple values sort by their smallest one */
+    public SortField sortField(Coordinate coordinate) {
+        if (!coordinates) {
+            throw new IllegalStateException(dbname);
+        }
+        return list ? new SortedSetSortField(coordinateName(coordinate), false) : new SortField(coordinateName(coordinate), SortField.Type.STRING);
+    }
+
+    private String ngramName() {
+        return dbname + ".ngram";
+    }
+
+    private String reversedName() {
+        return dbname + ".reversed";
+    }
+
+    private static String reverse(String str) {
+        return new StringBuilder(str).reverse().toString();
     }
 
     public void addOpt(Document document, String value) {
@@ -75,23 +149,92 @@ public enum Field {
         return document.getValues(dbname);
     }
 
+    /**
+     * @return the cheapest query for this match; wildcard queries only if there's no shadow field to avoid them, or if str
+     *         contains wildcards typed by the user
+     */
     public Query query(Match match, String str) {
+        if (hasWildcards(str)) {
+            return wildcard(dbname, match, str);
+        }
+        switch (match) {
+            case SUBSTRING:
+                if (shadows && str.length() >= NGRAM) {
+                    return new SubstringQuery(dbname, ngramName(), str);
+                }
+                return wildcard(dbname, match, str);
+            case PREFIX:
+                return new PrefixQuery(new Term(dbname, str));
+            case SUFFIX:
+                if (shadows) {
+                    return new PrefixQuery(new Term(reversedName(), reverse(str)));
+                }
+                return wildcard(dbname, match, str);
+            case STRING:
+                return new TermQuery(new Term(dbname, str));
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /** @param coordinate null for the full value */
+    public Query query(Coordinate coordinate, Match match, String str) {
+        String name;
+
+        if (coordinate == null) {
+            return query(match, str);
+        }
+        if (!coordinates) {
+            throw new IllegalStateException("field without coordinates: " + dbname);
+        }
+        name = coordinateName(coordinate);
+        if (hasWildcards(str)) {
+            return wildcard(name, match, str);
+        }
+        switch (match) {
+            case SUBSTRING:
+                if (shadows && str.length() >= NGRAM) {
+                    // n-grams of the coordinate are n-grams of the full value
+                    return new SubstringQuery(name, ngramName(), str, false, true);
+                }
+                return wildcard(name, match, str);
+            case PREFIX:
+                return new PrefixQuery(new Term(name, str));
+            case SUFFIX:
+                if (shadows && str.length() >= NGRAM) {
+                    return new SubstringQuery(name, ngramName(), str, true, true);
+                }
+                return wildcard(name, match, str);
+            case STRING:
+                return new TermQuery(new Term(name, str));
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /** @return true if str has characters with special meaning in wildcard queries */
+    private static boolean hasWildcards(String str) {
+        return str.indexOf(WildcardQuery.WILDCARD_STRING) != -1 || str.indexOf(WildcardQuery.WILDCARD_CHAR) != -1
+                || str.indexOf(WildcardQuery.WILDCARD_ESCAPE) != -1;
+    }
+
+    private static WildcardQuery wildcard(String name, Match match, String str) {
         switch (match) {
             case SUBSTRING:
-                return new WildcardQuery(new Term(dbname, "*" + str + "*"));
+                return new WildcardQuery(new Term(name, "*" + str + "*"));
             case PREFIX:
-                return new WildcardQuery(new Term(dbname, str + "*"));
+                return new WildcardQuery(new Term(name, str + "*"));
             case SUFFIX:
-                return new WildcardQuery(new Term(dbname, "*" + str));
-            case STRING: // TODO: without wildcard
-                return new WildcardQuery(new Term(dbname, str));
+                return new WildcardQuery(new Term(name, "*" + str));
+            case STRING:
+                return new WildcardQuery(new Term(name, str));
             default:
                 throw new IllegalStateException();
         }
     }
 
     public Query substring(String substring) {
-        return new WildcardQuery(new Term(dbname, "*" + substring + "*"));
+        return query(Match.SUBSTRING, substring);
     }
 
     public String dbname() {
@@ -145,11 +288,11 @@ public enum Field {
         ORIGIN.add(doc, project.origin());
         REVISION.add(doc, project.revision);
         if (project.parent != null) {
-            PARENT.add(doc, project.parent.toGavString());
+            PARENT.add(doc, project.parent);
         }
-        ARTIFACT.add(doc, project.artifact.toGavString());
+        ARTIFACT.add(doc, project.artifact);
         for (Gav dep : project.dependencies) {
-            DEP.add(doc, dep.toGavString());
+            DEP.add(doc, dep);
         }
         SCM.addOpt(doc, project.scm.scmUrl());
         URL.addOpt(doc, project.url);
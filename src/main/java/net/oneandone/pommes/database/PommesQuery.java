@@ -17,19 +17,32 @@ package net.oneandone.pommes.database;
 
 import net.oneandone.sushi.util.Separator;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CollectionTerminatedException;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.ScorerSupplier;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.Weight;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class PommesQuery {
     private static final Variables EMPTY = var -> null;
@@ -108,7 +121,12 @@ public class PommesQuery {
         }
 
         public Query toLucene() {
-            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            BooleanQuery.Builder builder;
+
+            if (expressions.size() == 1) {
+                return expressions.get(0).toLucene();
+            }
+            builder = new BooleanQuery.Builder();
             for (Expr expression : expressions) {
                 builder.add(expression.toLucene(), BooleanClause.Occur.SHOULD);
             }
@@ -151,30 +169,31 @@ public class PommesQuery {
         private final List<Expr> expressions = new ArrayList<>();
 
         public void add(Expr expression) {
-            // TODO: not ? BooleanClause.Occur.MUST_NOT : BooleanClause.Occur.MUST);
             expressions.add(expression);
         }
 
+        /** filter clauses because pommes does not rank results */
         public Query toLucene() {
-            BooleanQuery.Builder builder = new BooleanQuery.Builder();
-
-            // make sure we have at least one entry. Because terms might be empty. Or, if it's a single "!", we need another entry to make it work.
-            builder.add(any(), BooleanClause.Occur.MUST);
+            BooleanQuery.Builder builder;
+            boolean positive;
 
+            builder = new BooleanQuery.Builder();
+            positive = false;
             for (Expr expression : expressions) {
-                builder.add(expression.toLucene(), BooleanClause.Occur.MUST);
+                if (expression instanceof Atom atom && atom.not) {
+                    builder.add(expression.toLucene(), BooleanClause.Occur.MUST_NOT);
+                } else {
+                    builder.add(expression.toLucene(), BooleanClause.Occur.FILTER);
+                    positive = true;
+                }
+            }
+            if (!positive) {
+                // terms are empty, or there are negated terms only
+                builder.add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER);
             }
             return builder.build();
         }
 
-        private static Query any() {
-            BooleanQuery.Builder result;
-
-            result = new BooleanQuery.Builder();
-            result.add(Field.ORIGIN.query(Match.SUBSTRING, ""), BooleanClause.Occur.SHOULD);
-            return result.build();
-        }
-
 
         public List<String> toCentral() {
             StringBuilder result;
@@ -210,6 +229,9 @@ public class PommesQuery {
             Object[] tmp;
             Match match;
             int idx;
+            String ids;
+            int dot;
+            Coordinate coordinate;
             List<Field> fields;
             String string;
 
@@ -229,34 +251,63 @@ public class PommesQuery {
                     idx = (Integer) tmp[1];
                 }
                 // search origin, not trunk. Because scm url is regularly not adjusted
-                fields = Field.forIds(idx < 1 ? "as" : term.substring(0, idx));
+                ids = idx < 1 ? "as" : term.substring(0, idx);
+                dot = ids.indexOf('.');
+                if (dot == -1) {
+                    coordinate = null;
+                } else {
+                    if (dot != ids.length() - 2) {
+                        throw new IllegalStateException("invalid coordinate: " + ids);
+                    }
+                    coordinate = Coordinate.forId(ids.charAt(dot + 1));
+                    ids = dot == 0 ? "a" : ids.substring(0, dot);
+                }
+                fields = Field.forIds(ids);
                 string = term.substring(idx + 1); // ok for -1
                 string = variables.substitute(string);
-                return new Atom(not, fields, match, string);
+                return new Atom(not, fields, coordinate, match, string);
             }
         }
 
         public final boolean not;
         private final List<Field> fields;
+        /** null to match the full value */
+        private final Coordinate coordinate;
         private final Match match;
         private final String string;
 
         public Atom(boolean not, List<Field> fields, Match match, String string) {
+            this(not, fields, null, match, string);
+        }
+
+        public Atom(boolean not, List<Field> fields, Coordinate coordinate, Match match, String string) {
             if (fields.isEmpty()) {
                 throw new IllegalArgumentException();
             }
+            if (coordinate != null) {
+                for (Field field : fields) {
+                    if (!field.hasCoordinates()) {
+                        throw new IllegalStateException("field without coordinates: " + field.dbname());
+                    }
+                }
+            }
             this.not = not;
             this.fields = fields;
+            this.coordinate = coordinate;
             this.match = match;
             this.string = string;
         }
 
+        /** not is handled by the enclosing And */
         public Query toLucene() {
             BooleanQuery.Builder result;
 
+            if (fields.size() == 1) {
+                return fields.get(0).query(coordinate, match, string);
+            }
             result = new BooleanQuery.Builder();
             for (Field field : fields) {
-                result.add(field.query(match, string), BooleanClause.Occur.SHOULD);
+                result.add(field.query(coordinate, match, string), BooleanClause.Occur.SHOULD);
             }
             return result.build();
         }
@@ -278,6 +329,9 @@ public class PommesQuery {
             for (Field field : fields) {
                 result.append(field.dbname().charAt(0));
             }
+            if (coordinate != null) {
+                result.append('.').append(coordinate.id);
+            }
             result.append(match.delimiter);
             result.append(string);
             return result.toString();
@@ -299,28 +353,180 @@ public class PommesQuery {
     }
 
     public List<Document> find(IndexSearcher searcher) throws IOException {
-        TopDocs search;
         List<Document> list;
 
-        search = searcher.search(query.toLucene(), Integer.MAX_VALUE);
         list = new ArrayList<>();
+        find(searcher, null, null, 0, Integer.MAX_VALUE, list::add);
+        return list;
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle(Document document) throws IOException;
+    }
+
+    /**
+     * Without sort, matches are passed in index order to the handler while searching, without collecting all hits first;
+     * searching stops once limit documents are passed. There's no ranking because And clauses are filters. With sort, only
+     * the top offset + limit hits are collected before loading them. The index of this query is applied before offset and limit.
+     *
+     * @param fields names of the stored fields to load, null for all
+     * @param sort null for index order
+     * @return number of documents passed to the handler
+     */
+    public int find(IndexSearcher searcher, Set<String> fields, Sort sort, int offset, int limit, Handler handler) throws IOException {
+        int skip;
+        int count;
+        Collector collector;
+        ScoreDoc[] hits;
+        StoredFields storedFields;
+        DocumentStoredFieldVisitor visitor;
+
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException(offset + " " + limit);
+        }
         if (idx < 0) {
-            for (ScoreDoc scoreDoc : search.scoreDocs) {
-                list.add(searcher.getIndexReader().storedFields().document(scoreDoc.doc));
-            }
+            skip = offset;
+            count = limit;
         } else {
-            if (idx < search.scoreDocs.length) {
-                list.add(searcher.getIndexReader().storedFields().document(search.scoreDocs[idx].doc));
+            skip = idx + offset;
+            count = offset == 0 ? Math.min(1, limit) : 0;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        if (sort != null) {
+            hits = searcher.search(query.toLucene(), (int) Math.min((long) skip + count, Integer.MAX_VALUE), sort).scoreDocs;
+            storedFields = searcher.storedFields();
+            for (int i = skip; i < hits.length; i++) {
+                visitor = fields == null ? new DocumentStoredFieldVisitor() : new DocumentStoredFieldVisitor(fields);
+                storedFields.document(hits[i].doc, visitor);
+                handler.handle(visitor.getDocument());
             }
+            return Math.max(0, hits.length - skip);
         }
-        return list;
+        collector = new Collector(skip, count, fields, handler);
+        searcher.search(query.toLucene(), collector);
+        return collector.passed;
     }
 
-    public void delete(IndexWriter writer) throws IOException {
-        if (idx >= 0) {
-            throw new UnsupportedOperationException();
+    private static class Collector extends SimpleCollector {
+        private int skip;
+        private final int count;
+        private final Set<String> fields;
+        private final Handler handler;
+        private StoredFields storedFields;
+        private int passed;
+
+        Collector(int skip, int count, Set<String> fields, Handler handler) {
+            this.skip = skip;
+            this.count = count;
+            this.fields = fields;
+            this.handler = handler;
+            this.passed = 0;
         }
-        writer.deleteDocuments(query.toLucene());
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            if (passed == count) {
+                throw new CollectionTerminatedException(); // skips the remaining segments
+            }
+            storedFields = context.reader().storedFields();
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            DocumentStoredFieldVisitor visitor;
+
+            if (skip > 0) {
+                skip--;
+                return;
+            }
+            visitor = fields == null ? new DocumentStoredFieldVisitor() : new DocumentStoredFieldVisitor(fields);
+            storedFields.document(doc, visitor);
+            handler.handle(visitor.getDocument());
+            passed++;
+            if (passed == count) {
+                throw new CollectionTerminatedException();
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+
+    /** @return number of matching projects per coordinate value, read from doc values; sorted by value */
+    public Map<String, Integer> group(IndexSearcher searcher, Field field, Coordinate coordinate) throws IOException {
+        Map<String, Integer> result;
+        String name;
+
+        result = new TreeMap<>();
+        name = field.coordinateName(coordinate);
+        searcher.search(query.toLucene(), new SimpleCollector() {
+            private SortedSetDocValues values;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                values = DocValues.getSortedSet(context.reader(), name);
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                if (values.advanceExact(doc)) {
+                    for (int i = 0, max = values.docValueCount(); i < max; i++) {
+                        result.merge(values.lookupOrd(values.nextOrd()).utf8ToString(), 1, Integer::sum);
+                    }
+                }
+            }
+
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE_NO_SCORES;
+            }
+        });
+        return result;
+    }
+
+    /** @return the Lucene query tree with the estimated number of matching documents for every clause */
+    public String explain(IndexSearcher searcher) throws IOException {
+        StringBuilder result;
+
+        result = new StringBuilder();
+        result.append("plan for ").append(this).append('\n');
+        explain(searcher, query.toLucene(), "", "  ", result);
+        return result.toString();
+    }
+
+    private static void explain(IndexSearcher searcher, Query query, String occur, String indent, StringBuilder dest) throws IOException {
+        dest.append(indent).append(occur).append(query.getClass().getSimpleName());
+        if (!(query instanceof BooleanQuery)) {
+            dest.append(' ').append(query);
+        }
+        dest.append(", cost ").append(cost(searcher, query)).append('\n');
+        if (query instanceof BooleanQuery bq) {
+            for (BooleanClause clause : bq.clauses()) {
+                explain(searcher, clause.getQuery(), clause.getOccur().name() + " ", indent + "  ", dest);
+            }
+        }
+    }
+
+    /** @return Lucene's estimate for the number of documents to visit, summed over all segments */
+    private static long cost(IndexSearcher searcher, Query query) throws IOException {
+        Weight weight;
+        ScorerSupplier supplier;
+        long result;
+
+        weight = searcher.createWeight(searcher.rewrite(query), ScoreMode.COMPLETE_NO_SCORES, 1f);
+        result = 0;
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            supplier = weight.scorerSupplier(leaf);
+            if (supplier != null) {
+                result += supplier.cost();
+            }
+        }
+        return result;
     }
 
     public String toString() {
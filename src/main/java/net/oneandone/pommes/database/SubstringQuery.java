@@ -0,0 +1,199 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.database;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Substring match with term lookups instead of a leading wildcard: documents containing all n-grams of the substring are
+ * candidates, which are verified against the stored values. Requires substrings with at least Field.NGRAM characters.
+ * Coordinate fields are verified against their doc values, their candidates come from the n-grams of the full coordinates.
+ */
+class SubstringQuery extends Query {
+    /** @return n-grams to cover str; not all of them, overlapping grams would not improve the candidates much */
+    static Set<String> cover(String str) {
+        Set<String> result;
+
+        result = new LinkedHashSet<>();
+        for (int i = 0; i + Field.NGRAM <= str.length(); i += Field.NGRAM) {
+            result.add(str.substring(i, i + Field.NGRAM));
+        }
+        result.add(str.substring(str.length() - Field.NGRAM));
+        return result;
+    }
+
+    private final String field;
+    private final String ngramField;
+    private final String substring;
+    /** true to match values ending with substring only */
+    private final boolean suffix;
+    /** true to verify against sorted (set) doc values instead of stored values */
+    private final boolean docValues;
+
+    SubstringQuery(String field, String ngramField, String substring) {
+        this(field, ngramField, substring, false, false);
+    }
+
+    SubstringQuery(String field, String ngramField, String substring, boolean suffix, boolean docValues) {
+        if (substring.length() < Field.NGRAM) {
+            throw new IllegalArgumentException(substring);
+        }
+        this.field = field;
+        this.ngramField = ngramField;
+        this.substring = substring;
+        this.suffix = suffix;
+        this.docValues = docValues;
+    }
+
+    private boolean matches(String value) {
+        return suffix ? value.endsWith(substring) : value.contains(substring);
+    }
+
+    private Query candidates() {
+        BooleanQuery.Builder result;
+
+        result = new BooleanQuery.Builder();
+        for (String gram : cover(substring)) {
+            result.add(new TermQuery(new Term(ngramField, gram)), BooleanClause.Occur.FILTER);
+        }
+        return result.build();
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        Weight candidates;
+
+        candidates = searcher.createWeight(searcher.rewrite(candidates()), ScoreMode.COMPLETE_NO_SCORES, 1f);
+        return new ConstantScoreWeight(this, boost) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                Scorer approximation;
+
+                approximation = candidates.scorer(context);
+                if (approximation == null) {
+                    return null;
+                }
+                return new ConstantScoreScorer(this, score(), scoreMode,
+                        docValues ? docValuesIterator(approximation, context) : storedIterator(approximation, context));
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext context) {
+                return true;
+            }
+        };
+    }
+
+    private TwoPhaseIterator storedIterator(Scorer approximation, LeafReaderContext context) throws IOException {
+        StoredFields stored;
+        Set<String> load;
+
+        stored = context.reader().storedFields();
+        load = Set.of(field);
+        return new TwoPhaseIterator(approximation.iterator()) {
+            @Override
+            public boolean matches() throws IOException {
+                Document document;
+
+                document = stored.document(approximation.docID(), load);
+                for (String value : document.getValues(field)) {
+                    if (SubstringQuery.this.matches(value)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public float matchCost() {
+                return 100; // loads stored fields
+            }
+        };
+    }
+
+    private TwoPhaseIterator docValuesIterator(Scorer approximation, LeafReaderContext context) throws IOException {
+        SortedSetDocValues values;
+
+        values = DocValues.getSortedSet(context.reader(), field);
+        return new TwoPhaseIterator(approximation.iterator()) {
+            @Override
+            public boolean matches() throws IOException {
+                if (values.advanceExact(approximation.docID())) {
+                    for (int i = 0, max = values.docValueCount(); i < max; i++) {
+                        if (SubstringQuery.this.matches(values.lookupOrd(values.nextOrd()).utf8ToString())) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public float matchCost() {
+                return 10;
+            }
+        };
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        if (visitor.acceptField(field)) {
+            visitor.visitLeaf(this);
+        }
+    }
+
+    @Override
+    public String toString(String defaultField) {
+        return (field.equals(defaultField) ? "" : field + ":") + "*" + substring + (suffix ? "" : "*");
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        SubstringQuery other;
+
+        if (!sameClassAs(obj)) {
+            return false;
+        }
+        other = (SubstringQuery) obj;
+        return field.equals(other.field) && substring.equals(other.substring) && suffix == other.suffix && docValues == other.docValues;
+    }
+
+    @Override
+    public int hashCode() {
+        return classHash() ^ field.hashCode() ^ substring.hashCode() ^ Boolean.hashCode(suffix);
+    }
+}
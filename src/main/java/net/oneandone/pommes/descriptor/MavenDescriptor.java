@@ -30,6 +30,7 @@ import org.apache.maven.model.Dependency;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuildingException;
 
+import java.io.File;
 import java.io.IOException;
 
 public class MavenDescriptor extends Descriptor {
@@ -55,19 +56,36 @@ public class MavenDescriptor extends Descriptor {
 
     @Override
     public Project load() throws IOException {
+        byte[] bytes;
+        Project result;
         FileNode local;
+        File file;
         MavenProject project;
 
+        bytes = null;
+        if (environment.lib.properties().fastPoms) {
+            bytes = pom.readBytes();
+            result = environment.pomReader().readOpt(bytes, pom instanceof FileNode ? (FileNode) pom : null, storage, path, revision, storageScm, environment.console());
+            if (result != null) {
+                return result;
+            }
+        }
         local = null;
         try {
             if (pom instanceof FileNode) {
                 local = (FileNode) pom;
             } else {
                 local = environment.world().getTemp().createTempFile();
-                pom.copyFile(local);
+                if (bytes != null) {
+                    local.writeBytes(bytes);
+                } else {
+                    pom.copyFile(local);
+                }
             }
+            file = local.toPath().toFile();
+            environment.pomReader().countMaven();
             try {
-                project = environment.maven().loadPom(local.toPath().toFile());
+                project = environment.mavenPool().run(maven -> maven.loadPom(file));
             } catch (ProjectBuildingException e) {
                 throw new IOException(pom + ": cannot load maven project: " + e.getMessage(), e);
             }
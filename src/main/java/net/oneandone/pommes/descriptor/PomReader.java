@@ -0,0 +1,736 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.descriptor;
+
+import net.oneandone.inline.Console;
+import net.oneandone.pommes.database.Gav;
+import net.oneandone.pommes.database.Project;
+import net.oneandone.pommes.scm.Scm;
+import net.oneandone.pommes.scm.ScmUrl;
+import net.oneandone.sushi.fs.file.FileNode;
+import net.oneandone.sushi.util.Strings;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Reads the fields pommes needs from a pom with StAX instead of Maven model building. Resolves the parent chain from
+ * relative paths, the Maven repository or the database, and handles inheritance and interpolation of properties,
+ * dependencies, managed versions (including imported boms), url and scm. Parent and bom poms are loaded and parsed once
+ * per run, no matter how many poms share them. Returns null whenever Maven could come up with something else, e.g. for
+ * system properties or profiles with dependencies; callers fall back to Maven in this case.
+ */
+public class PomReader {
+    @FunctionalInterface
+    public interface Parents {
+        /** @return null if not found */
+        Project lookupOpt(Gav gav) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Repository {
+        /** @return null if not found */
+        byte[] loadOpt(Gav gav) throws IOException;
+    }
+
+    private static final int MAX_PARENTS = 20;
+    private static final int MAX_BOMS = 5;
+
+    private static final XMLInputFactory FACTORY;
+
+    static {
+        FACTORY = XMLInputFactory.newFactory();
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final Parents parents;
+    private final Repository repository;
+
+    /** parent and bom poms from the repository, empty if not found; lives as long as this reader, i.e. one pommes run */
+    private final Map<Gav, Optional<Pom>> repositoryPoms;
+    private final Map<Gav, Model> boms;
+
+    private final AtomicInteger fast;
+    private final AtomicInteger maven;
+    private final AtomicInteger loaded;
+    private final AtomicInteger reused;
+
+    public PomReader(Parents parents, Repository repository) {
+        this.parents = parents;
+        this.repository = repository;
+        this.repositoryPoms = new ConcurrentHashMap<>();
+        this.boms = new ConcurrentHashMap<>();
+        this.fast = new AtomicInteger();
+        this.maven = new AtomicInteger();
+        this.loaded = new AtomicInteger();
+        this.reused = new AtomicInteger();
+    }
+
+    /**
+     * @param file to resolve parents via relative path, null if the pom is not a local file
+     * @return null if Maven is needed to decide
+     */
+    public Project readOpt(byte[] pom, FileNode file, String storage, String path, String revision, ScmUrl storageScm, Console console)
+            throws IOException {
+        Project result;
+
+        try {
+            result = model(parse(pom), file, 0).project(storage, path, revision, storageScm, console);
+        } catch (XMLStreamException | Undecided e) {
+            result = null;
+        }
+        if (result != null) {
+            fast.incrementAndGet();
+        }
+        return result;
+    }
+
+    /** to compare throughput */
+    public void countMaven() {
+        maven.incrementAndGet();
+    }
+
+    public String summary() {
+        return "poms: " + fast.get() + " read fast, " + maven.get() + " loaded with maven; parent and bom poms: "
+                + loaded.get() + " loaded, " + reused.get() + " reused";
+    }
+
+    //-- parent chain
+
+    private Model model(Pom pom, FileNode file, int depth) throws Undecided, IOException {
+        List<Pom> chain;
+        Pom current;
+        FileNode local;
+        Gav gav;
+        Located located;
+        Pom parentPom;
+        Project database;
+
+        chain = new ArrayList<>();
+        chain.add(pom);
+        current = pom;
+        local = file;
+        database = null;
+        while (current.parent != null) {
+            if (chain.size() > MAX_PARENTS) {
+                throw new Undecided();
+            }
+            gav = parentGav(current);
+            located = local == null ? null : localParentOpt(local, current.parent, gav);
+            if (located != null) {
+                parentPom = located.pom;
+                local = located.file;
+            } else {
+                parentPom = repositoryPomOpt(gav);
+                local = null;
+            }
+            if (parentPom == null) {
+                // not deployed, but maybe indexed
+                database = parents.lookupOpt(gav);
+                if (database == null) {
+                    throw new Undecided();
+                }
+                break;
+            }
+            chain.add(parentPom);
+            current = parentPom;
+        }
+        return new Model(chain, database, depth);
+    }
+
+    /** Maven does not interpolate parent coordinates from the model */
+    private static Gav parentGav(Pom pom) throws Undecided {
+        return new Gav(literal(pom.parent.groupId), literal(pom.parent.artifactId), literal(pom.parent.version));
+    }
+
+    private static String literal(String str) throws Undecided {
+        if (str == null || str.isEmpty() || str.contains("${")) {
+            throw new Undecided();
+        }
+        return str;
+    }
+
+    /** Maven prefers the parent from the relative path if it has the requested coordinates */
+    private static Located localParentOpt(FileNode child, Dependency parent, Gav gav) throws IOException {
+        String relativePath;
+        FileNode candidate;
+        Pom pom;
+
+        relativePath = parent.relativePath == null ? "../pom.xml" : parent.relativePath;
+        if (relativePath.isEmpty()) {
+            return null;
+        }
+        candidate = child.getParent().join(relativePath);
+        if (candidate.isDirectory()) {
+            candidate = candidate.join("pom.xml");
+        }
+        if (!candidate.isFile()) {
+            return null;
+        }
+        pom = parseOpt(candidate.readBytes());
+        if (pom == null) {
+            return null;
+        }
+        if (gav.groupId.equals(pom.groupId != null ? pom.groupId : pom.parent == null ? null : pom.parent.groupId)
+                && gav.artifactId.equals(pom.artifactId)
+                && gav.version.equals(pom.version != null ? pom.version : pom.parent == null ? null : pom.parent.version)) {
+            return new Located(pom, candidate);
+        }
+        return null;
+    }
+
+    private record Located(Pom pom, FileNode file) {
+    }
+
+    private Pom repositoryPomOpt(Gav gav) throws IOException {
+        Optional<Pom> result;
+        byte[] bytes;
+
+        result = repositoryPoms.get(gav);
+        if (result != null) {
+            reused.incrementAndGet();
+        } else {
+            bytes = repository.loadOpt(gav);
+            result = Optional.ofNullable(bytes == null ? null : parseOpt(bytes));
+            repositoryPoms.putIfAbsent(gav, result);
+            loaded.incrementAndGet();
+        }
+        return result.orElse(null);
+    }
+
+    private Model bom(Gav gav, int depth) throws Undecided, IOException {
+        Model result;
+        Pom pom;
+
+        result = boms.get(gav);
+        if (result == null) {
+            if (depth > MAX_BOMS) {
+                throw new Undecided();
+            }
+            pom = repositoryPomOpt(gav);
+            if (pom == null) {
+                throw new Undecided();
+            }
+            result = model(pom, null, depth);
+            boms.putIfAbsent(gav, result);
+        }
+        return result;
+    }
+
+    //-- parsing
+
+    private static Pom parseOpt(byte[] pom) {
+        try {
+            return parse(pom);
+        } catch (XMLStreamException e) {
+            return null;
+        }
+    }
+
+    public static Pom parse(byte[] pom) throws XMLStreamException {
+        XMLStreamReader reader;
+        List<String> stack;
+        String path;
+        String name;
+        Pom result;
+        Dependency dependency;
+
+        result = new Pom();
+        stack = new ArrayList<>();
+        dependency = null;
+        reader = FACTORY.createXMLStreamReader(new ByteArrayInputStream(pom));
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        name = reader.getLocalName();
+                        if (stack.isEmpty() && !"project".equals(name)) {
+                            throw new XMLStreamException("not a pom: " + name);
+                        }
+                        path = String.join("/", stack);
+                        if ((stack.isEmpty() || "project/scm".equals(path)) && hasInheritAttribute(reader)) {
+                            result.inheritAttributes = true;
+                        }
+                        switch (path) {
+                            case "project":
+                                switch (name) {
+                                    case "groupId":
+                                        result.groupId = reader.getElementText().trim();
+                                        break;
+                                    case "artifactId":
+                                        result.artifactId = reader.getElementText().trim();
+                                        break;
+                                    case "version":
+                                        result.version = reader.getElementText().trim();
+                                        break;
+                                    case "packaging":
+                                        result.packaging = reader.getElementText().trim();
+                                        break;
+                                    case "url":
+                                        result.url = reader.getElementText().trim();
+                                        break;
+                                    case "parent":
+                                        result.parent = new Dependency();
+                                        break;
+                                    default:
+                                        break;
+                                }
+                                break;
+                            case "project/parent":
+                                leaf(reader, name, result.parent);
+                                break;
+                            case "project/scm":
+                                switch (name) {
+                                    case "connection":
+                                        result.connection = reader.getElementText().trim();
+                                        break;
+                                    case "developerConnection":
+                                        result.developerConnection = reader.getElementText().trim();
+                                        break;
+                                    default:
+                                        break;
+                                }
+                                break;
+                            case "project/properties":
+                                result.properties.put(name, reader.getElementText().trim());
+                                break;
+                            case "project/dependencies", "project/dependencyManagement/dependencies":
+                                if ("dependency".equals(name)) {
+                                    dependency = new Dependency();
+                                    (path.equals("project/dependencies") ? result.dependencies : result.managed).add(dependency);
+                                }
+                                break;
+                            case "project/dependencies/dependency", "project/dependencyManagement/dependencies/dependency":
+                                leaf(reader, name, dependency);
+                                break;
+                            case "project/profiles/profile":
+                                if ("dependencies".equals(name) || "dependencyManagement".equals(name)) {
+                                    result.profileDependencies = true;
+                                }
+                                break;
+                            case "project/profiles/profile/properties":
+                                result.profileProperties.add(name);
+                                break;
+                            default:
+                                break;
+                        }
+                        if (reader.isStartElement()) { // i.e. not consumed by getElementText
+                            stack.add(name);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        stack.remove(stack.size() - 1);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    private static boolean hasInheritAttribute(XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (reader.getAttributeLocalName(i).startsWith("child.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void leaf(XMLStreamReader reader, String name, Dependency dest) throws XMLStreamException {
+        switch (name) {
+            case "groupId":
+                dest.groupId = reader.getElementText().trim();
+                break;
+            case "artifactId":
+                dest.artifactId = reader.getElementText().trim();
+                break;
+            case "version":
+                dest.version = reader.getElementText().trim();
+                break;
+            case "type":
+                dest.type = reader.getElementText().trim();
+                break;
+            case "classifier":
+                dest.classifier = reader.getElementText().trim();
+                break;
+            case "scope":
+                dest.scope = reader.getElementText().trim();
+                break;
+            case "relativePath":
+                dest.relativePath = reader.getElementText().trim();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** thrown if Maven is needed to decide */
+    private static class Undecided extends Exception {
+        Undecided() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** also used for parents */
+    public static class Dependency {
+        public String groupId;
+        public String artifactId;
+        public String version;
+        public String type = "jar";
+        public String classifier;
+        public String scope;
+        /** parents only */
+        public String relativePath;
+    }
+
+    /** the parts of a pom needed by pommes, without any inheritance or interpolation */
+    public static class Pom {
+        public Dependency parent;
+        public String groupId;
+        public String artifactId;
+        public String version;
+        public String packaging = "jar";
+        public String url;
+        public String connection;
+        public String developerConnection;
+        public final Map<String, String> properties = new HashMap<>();
+        public final List<Dependency> dependencies = new ArrayList<>();
+        public final List<Dependency> managed = new ArrayList<>();
+        public final Set<String> profileProperties = new HashSet<>();
+        public boolean profileDependencies;
+        /** child.*.inherit.append.path attributes */
+        public boolean inheritAttributes;
+    }
+
+    /** a pom with its parent chain, to evaluate everything in the context of the child */
+    private class Model {
+        /** child first */
+        private final List<Pom> chain;
+        /** parent from the database that ends the chain, null if none */
+        private final Project database;
+        /** of bom imports */
+        private final int depth;
+        /** non-imported managed dependencies by management key, computed lazily */
+        private Map<String, Dependency> lazyManaged;
+
+        Model(List<Pom> chain, Project database, int depth) throws Undecided {
+            for (Pom pom : chain) {
+                if (pom.profileDependencies) {
+                    throw new Undecided();
+                }
+                if (pom != chain.get(0) && (pom.inheritAttributes || !"pom".equals(pom.packaging))) {
+                    // Maven rejects or treats differently
+                    throw new Undecided();
+                }
+            }
+            this.chain = chain;
+            this.database = database;
+            this.depth = depth;
+            this.lazyManaged = null;
+        }
+
+        private Pom child() {
+            return chain.get(0);
+        }
+
+        public Project project(String storage, String path, String revision, ScmUrl storageScm, Console console) throws Undecided, IOException {
+            Gav artifact;
+            Project result;
+            Set<String> keys;
+
+            artifact = new Gav(groupId(), artifactId(), version());
+            result = new Project(storage, path, revision, child().parent == null ? null : parentGav(child()), artifact,
+                    scm(storageScm, console).normalize(), url());
+            keys = new HashSet<>();
+            for (Pom pom : chain) {
+                for (Dependency dependency : pom.dependencies) {
+                    if (keys.add(managementKey(dependency))) {
+                        result.dependencies.add(new Gav(required(dependency.groupId), required(dependency.artifactId), dependencyVersion(dependency)));
+                    }
+                }
+            }
+            if (database != null) {
+                for (Gav inherited : database.dependencies) {
+                    if (!containsGa(result.dependencies, inherited)) {
+                        result.dependencies.add(inherited);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static boolean containsGa(List<Gav> gavs, Gav gav) {
+            for (Gav element : gavs) {
+                if (element.groupId.equals(gav.groupId) && element.artifactId.equals(gav.artifactId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private ScmUrl scm(ScmUrl storageScm, Console console) throws Undecided, IOException {
+            String str;
+            ScmUrl pomScm;
+
+            str = inherited(pom -> pom.developerConnection, null);
+            if (str == null) {
+                str = inherited(pom -> pom.connection, null);
+            }
+            // removeOpt because I've seen projects that omit the prefix ...
+            pomScm = str == null ? null : Scm.createUrl(Strings.removeLeftOpt(str, "scm:"));
+            if (storageScm != null) {
+                if (pomScm != null && !pomScm.same(storageScm)) {
+                    console.error.println("overriding pom scm " + pomScm + " with " + storageScm);
+                }
+                return storageScm;
+            }
+            if (pomScm == null) {
+                // inherited from the database parent, or missing - let Maven decide
+                throw new Undecided();
+            }
+            return pomScm;
+        }
+
+        private String url() throws Undecided {
+            return inherited(pom -> pom.url, database == null ? null : database.url);
+        }
+
+        /** Maven's default for inherited urls: append the artifactIds of all poms below the defining one */
+        private String inherited(Function<Pom, String> field, String databaseValue) throws Undecided {
+            List<String> artifactIds;
+            StringBuilder result;
+            boolean slash;
+
+            artifactIds = new ArrayList<>();
+            result = null;
+            for (Pom pom : chain) {
+                if (field.apply(pom) != null) {
+                    result = new StringBuilder(interpolate(field.apply(pom)));
+                    break;
+                }
+                artifactIds.add(0, required(pom.artifactId));
+            }
+            if (result == null) {
+                if (database == null || databaseValue == null) {
+                    return null;
+                }
+                result = new StringBuilder(databaseValue);
+            }
+            for (String artifactId : artifactIds) {
+                // like Maven, preserve a trailing slash
+                slash = result.length() > 0 && result.charAt(result.length() - 1) == '/';
+                result.append(slash ? "" : "/").append(artifactId).append(slash ? "/" : "");
+            }
+            return result.toString();
+        }
+
+        private String dependencyVersion(Dependency dependency) throws Undecided, IOException {
+            String result;
+
+            if (dependency.version != null) {
+                return required(dependency.version);
+            }
+            result = managedVersionOpt(managementKey(dependency));
+            if (result == null) {
+                throw new Undecided();
+            }
+            return result;
+        }
+
+        /** @return null if not managed */
+        private String managedVersionOpt(String key) throws Undecided, IOException {
+            Dependency dependency;
+            String result;
+
+            dependency = managed().get(key);
+            if (dependency != null) {
+                return required(dependency.version);
+            }
+            for (Pom pom : chain) {
+                for (Dependency m : pom.managed) {
+                    if (isImport(m)) {
+                        result = bom(new Gav(required(m.groupId), required(m.artifactId), required(m.version)), depth + 1).managedVersionOpt(key);
+                        if (result != null) {
+                            return result;
+                        }
+                    }
+                }
+            }
+            if (database != null) {
+                // database parents have no dependency management
+                throw new Undecided();
+            }
+            return null;
+        }
+
+        /** synchronized because bom models are shared */
+        private synchronized Map<String, Dependency> managed() throws Undecided {
+            if (lazyManaged == null) {
+                lazyManaged = new HashMap<>();
+                for (Pom pom : chain) {
+                    for (Dependency m : pom.managed) {
+                        if (!isImport(m)) {
+                            lazyManaged.putIfAbsent(managementKey(m), m);
+                        }
+                    }
+                }
+            }
+            return lazyManaged;
+        }
+
+        private static boolean isImport(Dependency dependency) {
+            return "import".equals(dependency.scope) && "pom".equals(dependency.type);
+        }
+
+        private String managementKey(Dependency dependency) throws Undecided {
+            return required(dependency.groupId) + ":" + required(dependency.artifactId) + ":" + required(dependency.type)
+                    + (dependency.classifier == null ? "" : ":" + required(dependency.classifier));
+        }
+
+        private String groupId() throws Undecided {
+            return groupId(new HashSet<>());
+        }
+
+        private String groupId(Set<String> resolving) throws Undecided {
+            if (child().groupId != null) {
+                return required(child().groupId, resolving);
+            }
+            if (child().parent != null) {
+                return required(child().parent.groupId, resolving);
+            }
+            throw new Undecided();
+        }
+
+        private String artifactId() throws Undecided {
+            return required(child().artifactId, new HashSet<>());
+        }
+
+        private String version() throws Undecided {
+            return version(new HashSet<>());
+        }
+
+        private String version(Set<String> resolving) throws Undecided {
+            if (child().version != null) {
+                return required(child().version, resolving);
+            }
+            if (child().parent != null) {
+                return required(child().parent.version, resolving);
+            }
+            throw new Undecided();
+        }
+
+        private String required(String str) throws Undecided {
+            return required(str, new HashSet<>());
+        }
+
+        private String required(String str, Set<String> resolving) throws Undecided {
+            String result;
+
+            result = interpolate(str, resolving);
+            if (result == null || result.isEmpty()) {
+                throw new Undecided();
+            }
+            return result;
+        }
+
+        private String interpolate(String str) throws Undecided {
+            return interpolate(str, new HashSet<>());
+        }
+
+        private String interpolate(String str, Set<String> resolving) throws Undecided {
+            StringBuilder result;
+            int start;
+            int end;
+            int prev;
+            String expression;
+
+            if (str == null || !str.contains("${")) {
+                return str;
+            }
+            result = new StringBuilder();
+            prev = 0;
+            while (true) {
+                start = str.indexOf("${", prev);
+                end = start == -1 ? -1 : str.indexOf('}', start);
+                if (end == -1) {
+                    result.append(str, prev, str.length());
+                    return result.toString();
+                }
+                result.append(str, prev, start);
+                expression = str.substring(start + 2, end);
+                if (!resolving.add(expression)) {
+                    throw new Undecided(); // cycle
+                }
+                result.append(evaluate(expression, resolving));
+                resolving.remove(expression);
+                prev = end + 1;
+            }
+        }
+
+        private String evaluate(String expression, Set<String> resolving) throws Undecided {
+            Pom child;
+
+            child = child();
+            switch (expression) {
+                case "project.groupId", "pom.groupId", "groupId":
+                    return groupId(resolving);
+                case "project.artifactId", "pom.artifactId", "artifactId":
+                    return required(child.artifactId, resolving);
+                case "project.version", "pom.version", "version":
+                    return version(resolving);
+                case "project.parent.groupId", "parent.groupId":
+                    return child.parent == null ? undecided() : required(child.parent.groupId, resolving);
+                case "project.parent.version", "parent.version":
+                    return child.parent == null ? undecided() : required(child.parent.version, resolving);
+                default:
+                    // properties are inherited, but evaluated in the context of the child
+                    for (Pom pom : chain) {
+                        if (pom.profileProperties.contains(expression)) {
+                            throw new Undecided();
+                        }
+                        if (pom.properties.containsKey(expression)) {
+                            return interpolate(pom.properties.get(expression), resolving);
+                        }
+                    }
+                    // database parent, system or environment
+                    throw new Undecided();
+            }
+        }
+
+        private static String undecided() throws Undecided {
+            throw new Undecided();
+        }
+    }
+}
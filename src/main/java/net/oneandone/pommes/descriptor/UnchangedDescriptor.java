@@ -0,0 +1,33 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.descriptor;
+
+import net.oneandone.pommes.database.Project;
+
+/**
+ * Refers to a project that's already indexed with this revision. Storages create it without downloading anything,
+ * the indexer only needs path and revision to keep the project.
+ */
+public class UnchangedDescriptor extends Descriptor {
+    public UnchangedDescriptor(String storage, String path, String revision) {
+        super(storage, path, revision, null);
+    }
+
+    @Override
+    public Project load() {
+        throw new IllegalStateException("unchanged descriptor cannot be loaded: " + path);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.scm;
+
+import net.oneandone.sushi.fs.file.FileNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent result of checkout walks: for every directory visited, its modification time and either the scm (and url)
+ * of the checkout or the names of its child directories. Adding, removing or renaming an entry changes the modification
+ * time of the containing directory, so a directory with unchanged modification time doesn't have to be listed again.
+ * Urls are re-read when the modification time of the scm directory (e.g. .git) changed.
+ */
+public class CheckoutCache {
+    /** directories modified this shortly before a walk might change again within the file system's time resolution */
+    private static final long RACY_MILLIS = 2000;
+
+    private static final String NONE = "-";
+
+    /** @return empty cache if the file doesn't exist or cannot be parsed */
+    public static CheckoutCache load(FileNode file) throws IOException {
+        CheckoutCache result;
+        String[] fields;
+
+        result = new CheckoutCache(file);
+        if (file.exists()) {
+            for (String line : file.readLines()) {
+                fields = line.split("\t", -1);
+                if (fields.length != 6) {
+                    return new CheckoutCache(file);
+                }
+                try {
+                    result.previous.put(fields[0], new Entry(Long.parseLong(fields[1]), none(fields[2]), none(fields[3]), Long.parseLong(fields[4]),
+                            fields[5].isEmpty() ? List.of() : List.of(fields[5].split("/"))));
+                } catch (NumberFormatException e) {
+                    return new CheckoutCache(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String none(String str) {
+        return NONE.equals(str) ? null : str;
+    }
+
+    /**
+     * @param scm protocol of the checkout's scm, null if the directory is no checkout
+     * @param url null if not known yet
+     * @param children child directories, sorted; empty for checkouts
+     */
+    public record Entry(long modified, String scm, String url, long urlModified, List<String> children) {
+        public Entry withUrl(String setUrl, long setUrlModified) {
+            return new Entry(modified, scm, setUrl, setUrlModified, children);
+        }
+    }
+
+    private final FileNode file;
+    private final long started;
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> next;
+    private final List<String> walked;
+
+    private CheckoutCache(FileNode file) {
+        this.file = file;
+        this.started = System.currentTimeMillis();
+        this.previous = new ConcurrentHashMap<>();
+        this.next = new ConcurrentHashMap<>();
+        this.walked = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /** called when starting a walk; entries below this root that are not visited again are dropped on save */
+    public void walk(Path root) {
+        walked.add(root.toString());
+    }
+
+    /** @return null if not cached or if the directory changed */
+    public Entry lookup(Path directory, long modified) {
+        Entry result;
+
+        result = previous.get(directory.toString());
+        return result != null && result.modified == modified ? result : null;
+    }
+
+    public void put(Path directory, Entry entry) {
+        String path;
+
+        path = directory.toString();
+        if (entry.modified > started - RACY_MILLIS || !serializable(path) || !entry.children.stream().allMatch(CheckoutCache::serializable)) {
+            next.remove(path);
+        } else {
+            next.put(path, entry);
+        }
+    }
+
+    private static boolean serializable(String str) {
+        return str.indexOf('\t') == -1 && str.indexOf('\n') == -1 && str.indexOf('\r') == -1;
+    }
+
+    /** @return url of a checkout found by the last walk, from cache if possible */
+    public ScmUrl url(FileNode checkout, Scm scm) throws IOException {
+        String path;
+        long modified;
+        Entry entry;
+        ScmUrl result;
+
+        path = checkout.toPath().toString();
+        modified = lastModified(checkout.toPath().resolve(scm.marker()));
+        entry = next.get(path);
+        if (entry == null) {
+            entry = previous.get(path);
+        }
+        if (entry != null && entry.url != null && entry.urlModified == modified && scm.protocol().equals(entry.scm)) {
+            return Scm.createUrl(entry.url);
+        }
+        result = scm.getUrl(checkout);
+        if (entry != null && modified <= started - RACY_MILLIS) {
+            next.put(path, entry.withUrl(result.scmUrl(), modified));
+        }
+        return result;
+    }
+
+    private static long lastModified(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).lastModifiedTime().toMillis();
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Merges entries of this run into the previous ones and writes them atomically. Call after all walks finished: entries
+     * below walked roots that were not put yet are dropped.
+     */
+    public synchronized void save() throws IOException {
+        NavigableMap<String, Entry> all;
+        List<String> lines;
+        FileNode tmp;
+        Entry entry;
+
+        all = new TreeMap<>(previous);
+        for (String root : walked) {
+            all.keySet().removeIf(path -> path.equals(root) || path.startsWith(root.endsWith("/") ? root : root + "/"));
+        }
+        all.putAll(next);
+        lines = new ArrayList<>(all.size());
+        for (Map.Entry<String, Entry> e : all.entrySet()) {
+            entry = e.getValue();
+            lines.add(String.join("\t", e.getKey(), Long.toString(entry.modified), entry.scm == null ? NONE : entry.scm,
+                    entry.url == null ? NONE : entry.url, Long.toString(entry.urlModified), String.join("/", entry.children)));
+        }
+        file.getParent().mkdirsOpt();
+        tmp = file.getParent().createTempFile();
+        tmp.writeLines(lines);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        previous.clear();
+        previous.putAll(all);
+        walked.clear();
+        next.clear();
+    }
+}
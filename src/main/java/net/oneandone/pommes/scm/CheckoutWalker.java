@@ -0,0 +1,212 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.scm;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * Finds checkouts below a directory. Directories are listed concurrently in a fork/join pool because the walk is
+ * dominated by file system latency, especially on network file systems. A directory is listed once, and the scms
+ * are only probed if the listing contains one of their marker names; with a cache, unchanged directories are not
+ * listed at all. Checkouts are returned in the order of a sequential walk that visits children sorted by name.
+ */
+public class CheckoutWalker {
+    /** more threads than cores because threads mostly wait for the file system */
+    public static final int PARALLELISM = 16;
+
+    /**
+     * @param hidden true to also descend into directories whose name starts with a dot
+     * @param exclude directories to prune, the root included
+     * @param cache null to list all directories; otherwise, directories with unchanged modification time are not listed.
+     *              The caller is responsible for saving the cache.
+     */
+    public static Map<FileNode, Scm> walk(FileNode root, boolean hidden, Predicate<Path> exclude, CheckoutCache cache) throws IOException {
+        ForkJoinPool pool;
+        Map<FileNode, Scm> result;
+
+        if (cache != null) {
+            cache.walk(root.toPath());
+        }
+        pool = new ForkJoinPool(PARALLELISM);
+        try {
+            result = new LinkedHashMap<>();
+            for (Found found : pool.invoke(new CheckoutWalker(root.getWorld(), hidden, exclude, cache).new Task(root.toPath()))) {
+                result.put(found.directory, found.scm);
+            }
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private record Found(FileNode directory, Scm scm) {
+    }
+
+    private final World world;
+    private final boolean hidden;
+    private final Predicate<Path> exclude;
+    private final CheckoutCache cache;
+
+    private CheckoutWalker(World world, boolean hidden, Predicate<Path> exclude, CheckoutCache cache) {
+        this.world = world;
+        this.hidden = hidden;
+        this.exclude = exclude;
+        this.cache = cache;
+    }
+
+    private class Task extends RecursiveTask<List<Found>> {
+        private final Path directory;
+
+        Task(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<Found> compute() {
+            try {
+                return walk();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private List<Found> walk() throws IOException {
+            Long modified;
+            CheckoutCache.Entry entry;
+            List<Task> tasks;
+            List<Found> result;
+
+            if (exclude.test(directory)) {
+                return Collections.emptyList();
+            }
+            modified = lastModifiedOpt(directory);
+            if (modified == null) {
+                return Collections.emptyList();
+            }
+            entry = cache == null ? null : cache.lookup(directory, modified);
+            if (entry == null) {
+                entry = scan(directory, modified);
+                if (entry == null) {
+                    return Collections.emptyList();
+                }
+            }
+            if (cache != null) {
+                cache.put(directory, entry);
+            }
+            if (entry.scm() != null) {
+                return List.of(new Found(world.file(directory.toFile()), Scm.forProtocol(entry.scm())));
+            }
+            tasks = new ArrayList<>();
+            for (String name : entry.children()) {
+                if (hidden || !name.startsWith(".")) {
+                    tasks.add(new Task(directory.resolve(name)));
+                }
+            }
+            invokeAll(tasks);
+            result = new ArrayList<>();
+            for (Task task : tasks) {
+                result.addAll(task.join());
+            }
+            return result;
+        }
+
+        /** @return null if directory is not a directory */
+        private CheckoutCache.Entry scan(Path dir, long modified) throws IOException {
+            List<String> names;
+            Scm scm;
+            List<String> children;
+
+            names = list(dir);
+            if (names == null) {
+                return null;
+            }
+            for (String name : names) {
+                if (Scm.isMarker(name)) {
+                    scm = Scm.probeCheckout(world.file(dir.toFile()));
+                    if (scm != null) {
+                        return new CheckoutCache.Entry(modified, scm.protocol(), null, 0, List.of());
+                    }
+                    break;
+                }
+            }
+            Collections.sort(names);
+            children = new ArrayList<>();
+            for (String name : names) {
+                if (isDirectory(dir.resolve(name))) {
+                    children.add(name);
+                }
+            }
+            return new CheckoutCache.Entry(modified, null, null, 0, children);
+        }
+    }
+
+    /** @return null if directory is not a directory */
+    private static List<String> list(Path directory) throws IOException {
+        List<String> result;
+
+        result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                result.add(path.getFileName().toString());
+            }
+        } catch (NotDirectoryException | NoSuchFileException e) {
+            return null;
+        }
+        return result;
+    }
+
+    /** @return null if path is not a directory; follows links */
+    private static Long lastModifiedOpt(Path path) throws IOException {
+        BasicFileAttributes attributes;
+
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return attributes.isDirectory() ? attributes.lastModifiedTime().toMillis() : null;
+    }
+
+    /** follows links, like FileNode.isDirectory */
+    private static boolean isDirectory(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).isDirectory();
+        } catch (NoSuchFileException e) {
+            // broken link or removed concurrently
+            return false;
+        }
+    }
+}
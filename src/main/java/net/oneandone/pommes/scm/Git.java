@@ -24,13 +24,16 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class Git extends Scm<GitUrl> {
     public record UP(String username, String password) {
     }
+
     public Git() {
-        super("git:", GitUrl::create);
+        super("git:", ".git", GitUrl::create);
     }
 
     public UP getCredentials(Console console, FileNode dir, String host) throws IOException {
@@ -75,9 +78,21 @@ public class Git extends Scm<GitUrl> {
 
     @Override
     public GitUrl getUrl(FileNode checkout) throws IOException {
+        GitConfig config;
+        String url;
         Launcher launcher;
 
-        launcher = git(checkout, "config", "--get", "remote.origin.url");
+        try {
+            config = GitConfig.loadOpt(checkout);
+        } catch (IOException e) {
+            // let git report the problem
+            config = null;
+        }
+        url = config == null ? null : config.remoteUrl("origin");
+        if (url != null) {
+            return GitUrl.create(url);
+        }
+        launcher = git(checkout, "remote", "get-url", "origin");
         try {
             return GitUrl.create(launcher.exec().trim());
             // TODO return PROTOCOL + explicitSshProtocol(launcher.exec().trim());
@@ -102,27 +117,82 @@ public class Git extends Scm<GitUrl> {
         }
     }
 
+    /** conservative: failures count as modifications */
     @Override
     public boolean isModified(FileNode checkout) {
         try {
-            git(checkout, "diff", "--quiet").execNoOutput();
-        } catch (Failure e) {
+            return state(checkout).isModified();
+        } catch (IOException e) {
             return true;
         }
-        try {
-            git(checkout, "diff", "--cached", "--quiet").execNoOutput();
-        } catch (Failure e) {
-            return true;
+    }
+
+    /**
+     * One status call for index, worktree and upstream state. If the current branch is the only local branch and has an
+     * upstream, the ahead count of status is sufficient; otherwise, one rev-list call checks for commits on any local
+     * branch that are not on a remote. Stashes and branches are checked without a process.
+     */
+    public GitState state(FileNode checkout) throws IOException {
+        FileNode gitDir;
+        String status;
+        Launcher revList;
+
+        gitDir = GitConfig.gitDirOpt(checkout);
+        if (gitDir == null) {
+            throw new IOException("not a git checkout: " + checkout);
+        }
+        status = git(checkout, "status", "--porcelain=v2", "--branch", "--untracked-files=no").exec();
+        if (GitState.hasUpstream(status) && localBranches(gitDir) == 1) {
+            return GitState.parse(status, false, stashed(gitDir));
+        }
+        revList = git(checkout, "rev-list", "-n", "1");
+        if (status.contains("# branch.head (detached)\n")) {
+            revList.arg("HEAD");
         }
+        revList.arg("--branches", "--not", "--remotes");
+        return GitState.parse(status, !revList.exec().isBlank(), stashed(gitDir));
+    }
 
-        try {
-            git(checkout, "diff", "@{u}..HEAD", "--quiet").execNoOutput();
-        } catch (Failure e) {
+    /** @return number of local branches, from loose and packed refs */
+    private static int localBranches(FileNode gitDir) throws IOException {
+        FileNode common;
+        FileNode heads;
+        FileNode packed;
+        Set<String> result;
+        int idx;
+
+        common = GitConfig.commonDir(gitDir);
+        result = new HashSet<>();
+        heads = common.join("refs/heads");
+        if (heads.isDirectory()) {
+            for (FileNode ref : heads.find("**/*")) {
+                if (ref.isFile()) {
+                    result.add(ref.getRelative(heads));
+                }
+            }
+        }
+        packed = common.join("packed-refs");
+        if (packed.isFile()) {
+            for (String line : packed.readLines()) {
+                idx = line.indexOf(" refs/heads/");
+                if (idx != -1 && !line.startsWith("#")) {
+                    result.add(line.substring(idx + " refs/heads/".length()));
+                }
+            }
+        }
+        return result.size();
+    }
+
+    private static boolean stashed(FileNode gitDir) throws IOException {
+        FileNode common;
+        FileNode packed;
+
+        common = GitConfig.commonDir(gitDir);
+        if (common.join("refs/stash").isFile()) {
             return true;
         }
-        // TODO: other branches
-        // TODO: stashes
-        return false;
+        packed = common.join("packed-refs");
+        return packed.isFile() && packed.readString().contains(" refs/stash\n");
     }
 
     private static Launcher git(FileNode dir, String... args) {
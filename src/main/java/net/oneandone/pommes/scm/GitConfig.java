@@ -0,0 +1,470 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.scm;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Reads git config files in-process to avoid forking git for every checkout. Covers system, global and repository config,
+ * include and includeIf (gitdir and onbranch), worktrees and url rewrites. Everything else is reported as unsupported
+ * and callers fall back to the git command.
+ */
+public class GitConfig {
+    private static final int MAX_INCLUDE_DEPTH = 10;
+
+    /** @return null if git would be configured by environment variables */
+    public static GitConfig loadOpt(FileNode checkout) throws IOException {
+        for (String name : System.getenv().keySet()) {
+            if (name.startsWith("GIT_CONFIG") || name.equals("GIT_DIR") || name.equals("GIT_COMMON_DIR")) {
+                return null;
+            }
+        }
+        return loadOpt(checkout, globalFiles(checkout.getWorld()));
+    }
+
+    /** system and global config files, in the order git reads them */
+    public static List<FileNode> globalFiles(World world) {
+        List<FileNode> result;
+        String xdg;
+
+        result = new ArrayList<>();
+        result.add(world.file("/etc/gitconfig"));
+        xdg = System.getenv("XDG_CONFIG_HOME");
+        result.add(xdg == null || xdg.isEmpty() ? world.getHome().join(".config/git/config") : world.file(xdg).join("git/config"));
+        result.add(world.getHome().join(".gitconfig"));
+        return result;
+    }
+
+    /** @return null if the checkout uses something this class does not understand */
+    public static GitConfig loadOpt(FileNode checkout, List<FileNode> globals) throws IOException {
+        FileNode gitDir;
+        FileNode local;
+        GitConfig result;
+
+        gitDir = gitDirOpt(checkout);
+        if (gitDir == null) {
+            return null;
+        }
+        result = new GitConfig(gitDir);
+        for (FileNode file : globals) {
+            if (file.isFile()) {
+                result.read(file, 0);
+            }
+        }
+        local = commonDir(gitDir).join("config");
+        if (local.isFile()) {
+            result.read(local, 0);
+        }
+        return result.supported ? result : null;
+    }
+
+    /** @return null if there's neither a .git directory nor a .git file pointing to an existing directory */
+    public static FileNode gitDirOpt(FileNode checkout) throws IOException {
+        FileNode dotGit;
+        String content;
+        FileNode result;
+
+        dotGit = checkout.join(".git");
+        if (dotGit.isDirectory()) {
+            return dotGit;
+        }
+        if (!dotGit.isFile()) {
+            return null;
+        }
+        content = dotGit.readString().trim();
+        if (!content.startsWith("gitdir:")) {
+            return null;
+        }
+        result = resolve(checkout, content.substring(7).trim());
+        return result.isDirectory() ? result : null;
+    }
+
+    /** @return directory with config, objects and refs shared by all worktrees */
+    public static FileNode commonDir(FileNode gitDir) throws IOException {
+        FileNode file;
+
+        file = gitDir.join("commondir");
+        return file.isFile() ? resolve(gitDir, file.readString().trim()) : gitDir;
+    }
+
+    private static FileNode resolve(FileNode base, String path) {
+        return base.getWorld().file(base.toPath().resolve(path).normalize().toFile());
+    }
+
+    //--
+
+    private final FileNode gitDir;
+
+    /** maps normalized keys to values, in the order they were read */
+    private final Map<String, List<String>> values;
+
+    private boolean supported;
+
+    private GitConfig(FileNode gitDir) {
+        this.gitDir = gitDir;
+        this.values = new HashMap<>();
+        this.supported = true;
+    }
+
+    /** @return last value, like git config --get; null if not defined */
+    public String get(String key) {
+        List<String> lst;
+
+        lst = values.get(normalize(key));
+        return lst == null ? null : lst.get(lst.size() - 1);
+    }
+
+    /** @return remote url with insteadOf rules applied, like git remote get-url; null if not defined */
+    public String remoteUrl(String remote) {
+        String url;
+
+        url = get("remote." + remote + ".url");
+        return url == null ? null : rewriteUrl(url);
+    }
+
+    /** applies the longest matching url.&lt;base&gt;.insteadOf prefix */
+    public String rewriteUrl(String url) {
+        String key;
+        String base;
+        String best;
+        String bestBase;
+
+        best = null;
+        bestBase = null;
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            key = entry.getKey();
+            if (key.startsWith("url.") && key.endsWith(".insteadof")) {
+                base = key.substring(4, key.length() - 10);
+                for (String prefix : entry.getValue()) {
+                    if (url.startsWith(prefix) && (best == null || prefix.length() > best.length())) {
+                        best = prefix;
+                        bestBase = base;
+                    }
+                }
+            }
+        }
+        return best == null ? url : bestBase + url.substring(best.length());
+    }
+
+    /** section and variable name are case-insensitive, the subsection is not */
+    private static String normalize(String key) {
+        int first;
+        int last;
+
+        first = key.indexOf('.');
+        last = key.lastIndexOf('.');
+        if (first == -1 || first == last) {
+            return key.toLowerCase();
+        }
+        return key.substring(0, first).toLowerCase() + key.substring(first, last) + key.substring(last).toLowerCase();
+    }
+
+    //-- parsing
+
+    private void read(FileNode file, int depth) throws IOException {
+        String str;
+        int pos;
+        int max;
+        char c;
+        String section;
+        String subsection;
+        int start;
+        String name;
+        String[] value;
+
+        if (depth > MAX_INCLUDE_DEPTH) {
+            supported = false;
+            return;
+        }
+        str = file.readString();
+        max = str.length();
+        pos = 0;
+        section = null;
+        subsection = null;
+        while (pos < max) {
+            c = str.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '#' || c == ';') {
+                pos = endOfLine(str, pos);
+            } else if (c == '[') {
+                start = pos + 1;
+                pos = start;
+                while (pos < max && (Character.isLetterOrDigit(str.charAt(pos)) || str.charAt(pos) == '-' || str.charAt(pos) == '.')) {
+                    pos++;
+                }
+                section = str.substring(start, pos).toLowerCase();
+                subsection = null;
+                if (section.indexOf('.') != -1) {
+                    // deprecated [section.subsection] syntax
+                    subsection = section.substring(section.indexOf('.') + 1);
+                    section = section.substring(0, section.indexOf('.'));
+                }
+                while (pos < max && (str.charAt(pos) == ' ' || str.charAt(pos) == '\t')) {
+                    pos++;
+                }
+                if (pos < max && str.charAt(pos) == '"') {
+                    value = new String[1];
+                    pos = subsection(str, pos + 1, value);
+                    subsection = value[0];
+                }
+                if (pos >= max || str.charAt(pos) != ']') {
+                    throw new IOException(file + ": invalid section header at offset " + start);
+                }
+                pos++;
+            } else if (Character.isLetter(c)) {
+                if (section == null) {
+                    throw new IOException(file + ": variable outside of section at offset " + pos);
+                }
+                start = pos;
+                while (pos < max && (Character.isLetterOrDigit(str.charAt(pos)) || str.charAt(pos) == '-')) {
+                    pos++;
+                }
+                name = str.substring(start, pos).toLowerCase();
+                while (pos < max && (str.charAt(pos) == ' ' || str.charAt(pos) == '\t')) {
+                    pos++;
+                }
+                if (pos < max && str.charAt(pos) == '=') {
+                    value = new String[1];
+                    pos = value(str, pos + 1, value);
+                    define(file, depth, section, subsection, name, value[0]);
+                } else {
+                    // no value means true
+                    define(file, depth, section, subsection, name, "true");
+                }
+            } else {
+                throw new IOException(file + ": unexpected character '" + c + "' at offset " + pos);
+            }
+        }
+    }
+
+    private static int endOfLine(String str, int pos) {
+        int result;
+
+        result = str.indexOf('\n', pos);
+        return result == -1 ? str.length() : result + 1;
+    }
+
+    /** @return position after the closing quote */
+    private static int subsection(String str, int pos, String[] result) throws IOException {
+        StringBuilder builder;
+        char c;
+
+        builder = new StringBuilder();
+        while (pos < str.length()) {
+            c = str.charAt(pos++);
+            if (c == '"') {
+                result[0] = builder.toString();
+                return pos;
+            }
+            if (c == '\\' && pos < str.length()) {
+                c = str.charAt(pos++);
+            }
+            if (c == '\n') {
+                break;
+            }
+            builder.append(c);
+        }
+        throw new IOException("unterminated subsection");
+    }
+
+    /** @return position after the value */
+    private static int value(String str, int pos, String[] result) throws IOException {
+        StringBuilder builder;
+        boolean quoted;
+        int keep; // length without trailing whitespace that's not quoted
+        char c;
+
+        builder = new StringBuilder();
+        quoted = false;
+        keep = 0;
+        while (pos < str.length()) {
+            c = str.charAt(pos++);
+            if (c == '\n' || (c == '\r' && pos < str.length() && str.charAt(pos) == '\n')) {
+                if (quoted) {
+                    throw new IOException("unterminated quote");
+                }
+                break;
+            }
+            if (!quoted && (c == '#' || c == ';')) {
+                pos = endOfLine(str, pos);
+                break;
+            }
+            if (c == '"') {
+                quoted = !quoted;
+                keep = builder.length();
+                continue;
+            }
+            if (c == '\\') {
+                if (pos >= str.length()) {
+                    break;
+                }
+                c = str.charAt(pos++);
+                switch (c) {
+                    case '\r':
+                        if (pos < str.length() && str.charAt(pos) == '\n') {
+                            pos++;
+                        }
+                        continue;
+                    case '\n':
+                        continue; // line continuation
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'b':
+                        builder.setLength(Math.max(0, builder.length() - 1));
+                        keep = builder.length();
+                        continue;
+                    case '"':
+                    case '\\':
+                        break;
+                    default:
+                        throw new IOException("invalid escape: \\" + c);
+                }
+                builder.append(c);
+                keep = builder.length();
+                continue;
+            }
+            if (builder.length() == 0 && !quoted && (c == ' ' || c == '\t')) {
+                continue; // leading whitespace
+            }
+            builder.append(c);
+            if (quoted || !(c == ' ' || c == '\t' || c == '\r')) {
+                keep = builder.length();
+            }
+        }
+        builder.setLength(keep);
+        result[0] = builder.toString();
+        return pos;
+    }
+
+    private void define(FileNode file, int depth, String section, String subsection, String name, String value) throws IOException {
+        String key;
+
+        key = subsection == null ? section + "." + name : section + "." + subsection + "." + name;
+        values.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        if (!"path".equals(name)) {
+            return;
+        }
+        if ("include".equals(section) && subsection == null) {
+            include(file, depth, value);
+        } else if ("includeif".equals(section) && subsection != null && condition(file, subsection)) {
+            include(file, depth, value);
+        }
+    }
+
+    private void include(FileNode file, int depth, String path) throws IOException {
+        FileNode included;
+
+        included = path(file, path);
+        if (included.isFile()) { // git silently ignores missing includes
+            read(included, depth + 1);
+        }
+    }
+
+    private FileNode path(FileNode file, String path) {
+        if (path.startsWith("~/")) {
+            return file.getWorld().getHome().join(path.substring(2));
+        }
+        return resolve(file.getParent(), path);
+    }
+
+    private boolean condition(FileNode file, String condition) throws IOException {
+        String pattern;
+        String head;
+
+        if (condition.startsWith("gitdir:")) {
+            return matches(gitdirPattern(file, condition.substring(7)), gitDir.getAbsolute(), false);
+        } else if (condition.startsWith("gitdir/i:")) {
+            return matches(gitdirPattern(file, condition.substring(9)), gitDir.getAbsolute(), true);
+        } else if (condition.startsWith("onbranch:")) {
+            pattern = condition.substring(9);
+            if (pattern.endsWith("/")) {
+                pattern = pattern + "**";
+            }
+            head = gitDir.join("HEAD").readString().trim();
+            return head.startsWith("ref: refs/heads/") && matches(pattern, head.substring(16), false);
+        } else {
+            // e.g. hasconfig:
+            supported = false;
+            return false;
+        }
+    }
+
+    private String gitdirPattern(FileNode file, String pattern) {
+        if (pattern.startsWith("~/")) {
+            pattern = file.getWorld().getHome().getAbsolute() + pattern.substring(1);
+        } else if (pattern.startsWith("./")) {
+            pattern = file.getParent().getAbsolute() + pattern.substring(1);
+        } else if (!Path.of(pattern).isAbsolute()) {
+            pattern = "**/" + pattern;
+        }
+        if (pattern.endsWith("/")) {
+            pattern = pattern + "**";
+        }
+        return pattern;
+    }
+
+    /** wildcard match where * and ? don't match slashes, ** does */
+    public static boolean matches(String glob, String str, boolean ignoreCase) {
+        StringBuilder regex;
+        char c;
+        int end;
+
+        regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            c = glob.charAt(i);
+            end = c == '[' ? glob.indexOf(']', i + 2) : -1;
+            if (glob.startsWith("**/", i)) {
+                regex.append("(?:.*/)?");
+                i += 2;
+            } else if (glob.startsWith("**", i)) {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (end != -1) {
+                regex.append('[');
+                if (glob.charAt(i + 1) == '!' || glob.charAt(i + 1) == '^') {
+                    regex.append('^');
+                    i++;
+                }
+                regex.append(glob.substring(i + 1, end).replace("\\", "\\\\").replace("[", "\\["));
+                regex.append(']');
+                i = end;
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), ignoreCase ? Pattern.CASE_INSENSITIVE : 0).matcher(str).matches();
+    }
+}
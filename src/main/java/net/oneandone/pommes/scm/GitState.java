@@ -0,0 +1,70 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.scm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Local state of a git checkout that would be lost when deleting it. Untracked files don't count, like before. */
+public record GitState(boolean staged, boolean unstaged, boolean unpushed, boolean stashed) {
+    /** @param lines output of git status --porcelain=v2 --branch --untracked-files=no */
+    public static GitState parse(String lines, boolean unpushed, boolean stashed) {
+        boolean staged;
+        boolean unstaged;
+
+        staged = false;
+        unstaged = false;
+        for (String line : lines.split("\n")) {
+            if (line.startsWith("1 ") || line.startsWith("2 ") || line.startsWith("u ")) {
+                // XY status: X is the index, Y the worktree; '.' is unmodified
+                staged |= line.charAt(2) != '.';
+                unstaged |= line.charAt(3) != '.';
+            } else if (line.startsWith("# branch.ab +")) {
+                unpushed |= !line.startsWith("# branch.ab +0 ");
+            }
+        }
+        return new GitState(staged, unstaged, unpushed, stashed);
+    }
+
+    /** @return true if status reports an upstream for the current branch, i.e. the ahead count is known */
+    public static boolean hasUpstream(String lines) {
+        return lines.contains("\n# branch.ab ");
+    }
+
+    public boolean isModified() {
+        return staged || unstaged || unpushed || stashed;
+    }
+
+    @Override
+    public String toString() {
+        List<String> result;
+
+        result = new ArrayList<>();
+        if (staged) {
+            result.add("staged changes");
+        }
+        if (unstaged) {
+            result.add("unstaged changes");
+        }
+        if (unpushed) {
+            result.add("unpushed commits");
+        }
+        if (stashed) {
+            result.add("stashes");
+        }
+        return result.isEmpty() ? "clean" : String.join(", ", result);
+    }
+}
@@ -15,17 +15,13 @@
  */
 package net.oneandone.pommes.scm;
 
-import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.fs.filter.Filter;
 import net.oneandone.sushi.launcher.Failure;
 import net.oneandone.sushi.launcher.Launcher;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
-import java.util.List;
+import java.nio.file.Path;
 import java.util.Map;
 
 public abstract class Scm<U extends ScmUrl> {
@@ -37,17 +33,20 @@ public abstract class Scm<U extends ScmUrl> {
     //--
 
     private final String protocol;
+    /** name of the directory that marks a checkout */
+    private final String marker;
     private final UrlParser<U> parser;
     @FunctionalInterface
     public interface UrlParser<U> {
         U parse(String url) throws ScmUrlException;
     }
 
-    protected Scm(String protocol, UrlParser<U> parser) {
+    protected Scm(String protocol, String marker, UrlParser<U> parser) {
         if (!protocol.endsWith(":")) {
             throw new IllegalArgumentException(protocol);
         }
         this.protocol = protocol;
+        this.marker = marker;
         this.parser = parser;
     }
 
@@ -55,6 +54,10 @@ public abstract class Scm<U extends ScmUrl> {
         return protocol;
     }
 
+    public String marker() {
+        return marker;
+    }
+
     //--
 
     public abstract U getUrl(FileNode checkout) throws IOException;
@@ -67,35 +70,37 @@ public abstract class Scm<U extends ScmUrl> {
 
     //--
 
-    public static Map<FileNode, Scm> scanCheckouts(FileNode directory, Filter excludes) throws IOException {
+    /** @param cache null to walk without cache */
+    public static Map<FileNode, Scm> scanCheckouts(FileNode directory, Filter excludes, CheckoutCache cache) throws IOException {
+        Path root;
         Map<FileNode, Scm> result;
 
-        result = new LinkedHashMap<>();
-        scanCheckouts(directory, directory, excludes, result);
+        root = directory.toPath();
+        result = CheckoutWalker.walk(directory, false, path -> excludes.matches(root.relativize(path).toString().replace('\\', '/')), cache);
+        if (cache != null) {
+            cache.save();
+        }
         return result;
     }
 
-    private static void scanCheckouts(FileNode root, FileNode directory, Filter excludes, Map<FileNode, Scm> result) throws IOException {
-        List<FileNode> children;
-        Scm probed;
-
-        if (excludes.matches(directory.getRelative(root))) {
-            return;
+    /** @return true if a directory containing this name might be a checkout */
+    public static boolean isMarker(String name) {
+        for (Scm<?> scm : SCMS) {
+            if (scm.marker.equals(name)) {
+                return true;
+            }
         }
-        probed = probeCheckout(directory);
-        if (probed != null) {
-            result.put(directory, probed);
-        } else {
-            children = directory.list();
-            if (children != null) {
-                Collections.sort(children, Comparator.comparing(Node::getName));
-                for (FileNode child : children) {
-                    if (!child.getName().startsWith(".")) {
-                        scanCheckouts(root, child, excludes, result);
-                    }
-                }
+        return false;
+    }
+
+    /** @return null if not found */
+    public static Scm forProtocol(String protocol) {
+        for (Scm<?> scm : SCMS) {
+            if (scm.protocol.equals(protocol)) {
+                return scm;
             }
         }
+        return null;
     }
 
     public static Scm probeCheckout(FileNode checkout) throws IOException {
@@ -20,13 +20,31 @@ import net.oneandone.sushi.launcher.Failure;
 import net.oneandone.sushi.launcher.Launcher;
 import net.oneandone.sushi.util.Separator;
 import net.oneandone.sushi.util.Strings;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.internal.io.svn.SVNRepositoryFactoryImpl;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc.SVNStatus;
+import org.tmatesoft.svn.core.wc.SVNStatusType;
 
 import java.io.IOException;
 
-/** urls are normalized by removing the tailing slash. */
+/**
+ * urls are normalized by removing the tailing slash. Working copy operations use the SVNKit library in-process and fall
+ * back to the svn command if SVNKit fails, e.g. because of a working copy format or authentication it does not support.
+ */
 public class Subversion extends Scm<SubversionUrl> {
+    static {
+        DAVRepositoryFactory.setup();
+        SVNRepositoryFactoryImpl.setup();
+        FSRepositoryFactory.setup();
+    }
+
     public Subversion() {
-        super("svn:", SubversionUrl::new);
+        super("svn:", ".svn", SubversionUrl::new);
     }
 
     public boolean isCheckout(FileNode directory) {
@@ -35,14 +53,22 @@ public class Subversion extends Scm<SubversionUrl> {
 
     @Override
     public SubversionUrl getUrl(FileNode checkout) throws Failure, ScmUrlException {
+        SVNClientManager manager;
         String url;
         int idx;
         String str;
 
-        url = checkout.launcher("svn", "info").exec();
-        idx = url.indexOf("URL: ") + 5;
-        str = (Strings.removeRightOpt(url.substring(idx, url.indexOf("\n", idx)), "/"));
-        return new SubversionUrl(str);
+        manager = SVNClientManager.newInstance();
+        try {
+            str = manager.getWCClient().doInfo(checkout.toPath().toFile(), SVNRevision.UNDEFINED).getURL().toString();
+        } catch (SVNException e) {
+            url = checkout.launcher("svn", "info").exec();
+            idx = url.indexOf("URL: ") + 5;
+            str = url.substring(idx, url.indexOf("\n", idx));
+        } finally {
+            manager.dispose();
+        }
+        return new SubversionUrl(Strings.removeRightOpt(str, "/"));
     }
 
     @Override
@@ -52,6 +78,12 @@ public class Subversion extends Scm<SubversionUrl> {
 
     @Override
     public boolean isAlive(FileNode checkout) {
+        try {
+            status(checkout, true);
+            return true;
+        } catch (SVNException e) {
+            // fall through, the svn command might have credentials SVNKit cannot read
+        }
         try {
             svn(checkout, "status", "--show-updates").exec();
             return true;
@@ -63,7 +95,40 @@ public class Subversion extends Scm<SubversionUrl> {
 
     @Override
     public boolean isModified(FileNode directory) throws IOException {
-        return isModified(directory.exec("svn", "status"));
+        try {
+            return status(directory, false);
+        } catch (SVNException e) {
+            return isModified(directory.exec("svn", "status"));
+        }
+    }
+
+    /** @return true if modified */
+    private static boolean status(FileNode checkout, boolean remote) throws SVNException {
+        SVNClientManager manager;
+        boolean[] modified;
+
+        manager = SVNClientManager.newInstance();
+        modified = new boolean[1];
+        try {
+            manager.getStatusClient().doStatus(checkout.toPath().toFile(), SVNRevision.HEAD, SVNDepth.INFINITY, remote,
+                    false, false, false, status -> modified[0] |= isModified(status), null);
+        } finally {
+            manager.dispose();
+        }
+        return modified[0];
+    }
+
+    /** same as a non-empty line of svn status, except for svn:externals definitions */
+    private static boolean isModified(SVNStatus status) {
+        if (status.getNodeStatus() == SVNStatusType.STATUS_EXTERNAL) {
+            return false;
+        }
+        return !isNormal(status.getNodeStatus()) || !isNormal(status.getPropertiesStatus()) || status.isLocked() || status.isSwitched()
+                || status.getLocalLock() != null || status.getTreeConflict() != null;
+    }
+
+    private static boolean isNormal(SVNStatusType type) {
+        return type == null || type == SVNStatusType.STATUS_NORMAL || type == SVNStatusType.STATUS_NONE;
     }
 
     private static boolean isModified(String lines) {
@@ -18,7 +18,7 @@ package net.oneandone.pommes.search;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import net.oneandone.maven.summon.api.Maven;
+import net.oneandone.pommes.cli.MavenPool;
 import net.oneandone.pommes.database.PommesQuery;
 import net.oneandone.pommes.database.Project;
 import net.oneandone.pommes.descriptor.MavenDescriptor;
@@ -39,11 +39,11 @@ import java.util.List;
 
 public class CentralSearch {
     private final World world;
-    private final Maven maven;
+    private final MavenPool mavenPool;
 
-    public CentralSearch(World world, Maven maven) {
+    public CentralSearch(World world, MavenPool mavenPool) {
         this.world = world;
-        this.maven = maven;
+        this.mavenPool = mavenPool;
     }
 
     public List<Project> query(PommesQuery query) throws IOException {
@@ -101,11 +101,13 @@ public class CentralSearch {
         MavenProject p;
         ScmUrl scm;
 
-        try {
-            p = maven.loadPom(artifact);
-        } catch (ProjectBuildingException | RepositoryException e) {
-            throw new IOException("failed to resolve " + artifact + ": " + e.getMessage(), e);
-        }
+        p = mavenPool.run(maven -> {
+            try {
+                return maven.loadPom(artifact);
+            } catch (ProjectBuildingException | RepositoryException e) {
+                throw new IOException("failed to resolve " + artifact + ": " + e.getMessage(), e);
+            }
+        });
         scm = MavenDescriptor.scmOpt(p);
         if (scm == null) {
             System.out.println("TODO: no scm: " + artifact);
@@ -0,0 +1,112 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.storage;
+
+import net.oneandone.sushi.fs.http.HttpNode;
+import net.oneandone.sushi.fs.http.model.HeaderList;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Searches poms with Artifactory Query Language; returns poms only, unlike the deep file listing.
+ * https://jfrog.com/help/r/jfrog-rest-apis/artifactory-query-language
+ */
+public class Aql {
+    public static final int DEFAULT_PAGE_SIZE = 5000;
+
+    private final HttpNode search;
+    private final int pageSize;
+
+    /** @param artifactory root of artifactory, i.e. the node containing "api" */
+    public Aql(HttpNode artifactory, int pageSize) {
+        this.search = artifactory.join("api/search/aql").withHeaders(HeaderList.of("Content-Type", "text/plain"));
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param path in repository, empty for the whole repository
+     * @param modifiedSince null for all poms
+     * @return number of poms found
+     */
+    public int findPoms(String repo, String path, Instant modifiedSince, Artifact.Handler dest) throws IOException, InterruptedException {
+        String criteria;
+        JsonArray results;
+        JsonObject item;
+        int count;
+
+        criteria = criteria(repo, path, modifiedSince);
+        count = 0;
+        for (int offset = 0; true; offset += pageSize) {
+            try (JsonReader reader = Json.createReader(new StringReader(search.post(query(criteria, offset))))) {
+                results = reader.readObject().getJsonArray("results");
+            }
+            for (JsonValue value : results) {
+                item = value.asJsonObject();
+                dest.handle(new Artifact(uri(path, item.getString("path"), item.getString("name")), item.getString("actual_sha1")));
+                count++;
+            }
+            if (results.size() < pageSize) {
+                return count;
+            }
+        }
+    }
+
+    public static String criteria(String repo, String path, Instant modifiedSince) {
+        JsonObjectBuilder result;
+
+        result = Json.createObjectBuilder();
+        result.add("repo", repo);
+        result.add("name", Json.createObjectBuilder().add("$match", "*.pom"));
+        if (!path.isEmpty()) {
+            result.add("$or", Json.createArrayBuilder()
+                    .add(Json.createObjectBuilder().add("path", Json.createObjectBuilder().add("$eq", path)))
+                    .add(Json.createObjectBuilder().add("path", Json.createObjectBuilder().add("$match", path + "/*"))));
+        }
+        if (modifiedSince != null) {
+            result.add("modified", Json.createObjectBuilder().add("$gt", modifiedSince.truncatedTo(ChronoUnit.MILLIS).toString()));
+        }
+        return result.build().toString();
+    }
+
+    /** sorted to get stable pages */
+    private String query(String criteria, int offset) {
+        return "items.find(" + criteria + ").include(\"path\",\"name\",\"actual_sha1\",\"modified\")"
+                + ".sort({\"$asc\":[\"path\",\"name\"]}).offset(" + offset + ").limit(" + pageSize + ")";
+    }
+
+    /** @return uri relative to path, as used by the file listing */
+    private static String uri(String path, String itemPath, String name) {
+        String result;
+
+        result = ".".equals(itemPath) ? name : itemPath + "/" + name;
+        if (!path.isEmpty()) {
+            if (!result.startsWith(path + "/")) {
+                throw new IllegalStateException("unexpected path: " + result);
+            }
+            result = result.substring(path.length() + 1);
+        }
+        return "/" + result;
+    }
+}
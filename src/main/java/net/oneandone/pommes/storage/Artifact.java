@@ -6,6 +6,11 @@ import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.util.Strings;
 
 public record Artifact(String uri, String sha1) {
+    @FunctionalInterface
+    public interface Handler {
+        void handle(Artifact artifact) throws InterruptedException;
+    }
+
     public String name() {
         int idx = uri.lastIndexOf('/');
         if (idx < 0) {
@@ -16,12 +16,15 @@
 package net.oneandone.pommes.storage;
 
 import net.oneandone.inline.ArgumentException;
+import net.oneandone.inline.Console;
 import net.oneandone.pommes.cli.Environment;
 import net.oneandone.pommes.descriptor.Descriptor;
+import net.oneandone.pommes.descriptor.UnchangedDescriptor;
 import net.oneandone.pommes.scm.ScmUrl;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.NodeInstantiationException;
 import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.http.HttpNode;
 import net.oneandone.sushi.util.Strings;
 
 import javax.json.Json;
@@ -29,12 +32,14 @@ import javax.json.stream.JsonParser;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ArtifactoryStorage extends TreeStorage<Artifact, Artifact> {
     public static ArtifactoryStorage create(Environment environment, String name, String url)
@@ -48,6 +53,15 @@ public class ArtifactoryStorage extends TreeStorage<Artifact, Artifact> {
     private final World world;
     private String contextPath;
 
+    /** true to search poms with aql instead of the deep file listing */
+    private boolean aql;
+
+    /** true to search poms modified since the last successful index run only; requires aql */
+    private boolean incremental;
+
+    /** number of newest versions to index per groupId:artifactId; 0 for all */
+    private int latest;
+
     public ArtifactoryStorage(Environment environment, String name, String url) throws NodeInstantiationException, URISyntaxException {
         super(environment, name);
         this.environment = environment;
@@ -58,32 +72,138 @@ public class ArtifactoryStorage extends TreeStorage<Artifact, Artifact> {
         if (!url.contains(contextPath)) {
             this.contextPath = "/";
         }
+        this.aql = false;
+        this.incremental = false;
+        this.latest = 0;
     }
 
+    @Override
     public void addOption(String option) {
         String prefix = "context=";
+        String aqlPrefix = "aql=";
+        String incrementalPrefix = "incremental=";
+        String latestPrefix = "latest=";
 
         if (option.startsWith(prefix)) {
             contextPath = Strings.removeLeft(option, prefix);
             if (!contextPath.endsWith("/")) {
                 throw new ArgumentException("context path does not end with a slash: " + contextPath);
             }
+        } else if (option.startsWith(aqlPrefix)) {
+            aql = Boolean.parseBoolean(Strings.removeLeft(option, aqlPrefix));
+        } else if (option.startsWith(incrementalPrefix)) {
+            incremental = Boolean.parseBoolean(Strings.removeLeft(option, incrementalPrefix));
+        } else if (option.startsWith(latestPrefix)) {
+            try {
+                latest = Integer.parseInt(Strings.removeLeft(option, latestPrefix));
+            } catch (NumberFormatException e) {
+                throw new ArgumentException(name + ": invalid number: " + option);
+            }
+            if (latest < 1) {
+                throw new ArgumentException(name + ": latest expected to be positive: " + latest);
+            }
+        } else if (option.startsWith(PARALLEL) || option.startsWith(ORDERED)) {
+            // scan is overridden, descriptors are loaded concurrently by the index loaders anyway
+            throw new ArgumentException(name + ": option not supported by artifactory storages: " + option);
+        } else {
+            super.addOption(option);
+        }
+    }
+
+    /**
+     * Streams the listing (or aql results) and queues matching files while parsing, without collecting all files first.
+     * The listed sha1 is the revision, thus unchanged files are not downloaded.
+     */
+    @Override
+    public void scan(BlockingQueue<Descriptor> dest, Console console) throws IOException, InterruptedException {
+        AtomicInteger count;
+        Set<String> queued;
+        Artifact.Handler handler;
+        LatestVersions latestVersions;
+
+        if (incremental && !aql) {
+            throw new ArgumentException(name + ": incremental requires aql");
+        }
+        count = new AtomicInteger();
+        // only needed to keep unchanged poms in incremental runs
+        queued = incremental && changedSince != null ? new HashSet<>() : null;
+        handler = artifact -> {
+            Descriptor.Creator creator;
+            Descriptor descriptor;
+
+            creator = Descriptor.match(artifact.name());
+            if (creator != null) {
+                descriptor = artifact.create(root, name, environment, creator);
+                if (queued != null) {
+                    queued.add(descriptor.getPath());
+                }
+                dest.put(descriptor);
+                count.incrementAndGet();
+            }
+        };
+        if (latest > 0) {
+            // collects poms (not all files), latest versions are known after all poms are listed
+            latestVersions = new LatestVersions(latest);
+            if (aql) {
+                scanAql(latestVersions, queued != null, console);
+            } else {
+                parse(artifact -> {
+                    if (Descriptor.match(artifact.name()) != null) {
+                        latestVersions.handle(artifact);
+                    }
+                });
+            }
+            latestVersions.flush(handler);
+        } else if (aql) {
+            scanAql(handler, queued != null, console);
+        } else {
+            parse(handler);
+        }
+        console.info.println(name + ": " + count.get() + " descriptors");
+        if (queued != null) {
+            // aql cannot report deleted poms, they are removed by the next full run
+            for (Map.Entry<String, String> entry : indexed.entrySet()) {
+                if (!queued.contains(entry.getKey())) {
+                    dest.put(new UnchangedDescriptor(name, entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+    }
+
+    private void scanAql(Artifact.Handler handler, boolean modified, Console console) throws IOException, InterruptedException {
+        String repositoryAndPath;
+        int idx;
+
+        repositoryAndPath = repositoryAndPath();
+        idx = repositoryAndPath.indexOf('/');
+        if (modified) {
+            console.verbose.println(name + ": searching poms modified since " + changedSince);
         }
-        throw new ArgumentException(url + ": unknown option: " + option);
+        new Aql((HttpNode) world.validNode(Strings.removeRight(artifactory(), "/")), Aql.DEFAULT_PAGE_SIZE).findPoms(
+                idx == -1 ? repositoryAndPath : repositoryAndPath.substring(0, idx),
+                idx == -1 ? "" : repositoryAndPath.substring(idx + 1), modified ? changedSince : null, handler);
     }
 
     @Override
     public List<Artifact> list() throws IOException {
         List<Artifact> result = new ArrayList<>();
+        try {
+            parse(result::add);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e); // not thrown by add
+        }
+        return result;
+    }
+
+    private void parse(Artifact.Handler handler) throws IOException, InterruptedException {
         Node<?> listing = world.validNode(artifactory() + "api/storage/" + repositoryAndPath() + "?list&deep=1&mdTimestamps=0");
         try {
-            Parser.run(environment, listing, result);
-        } catch (IOException | RuntimeException e) {
+            Parser.run(listing, handler);
+        } catch (IOException | RuntimeException | InterruptedException e) {
             throw e;
         } catch (Exception e) {
             throw new IOException("scanning failed: " + e.getMessage(), e);
         }
-        return result;
     }
 
     /** @return with tailing slash */
@@ -128,7 +248,7 @@ public class ArtifactoryStorage extends TreeStorage<Artifact, Artifact> {
 
     @Override
     public String fileRevision(Artifact repository, Artifact artifact, Node<?> local) throws IOException {
-        return local.sha();
+        return artifact.sha1();
     }
 
     @Override
@@ -139,12 +259,8 @@ public class ArtifactoryStorage extends TreeStorage<Artifact, Artifact> {
     //--
 
     public static class Parser implements AutoCloseable {
-        private static final SimpleDateFormat FMT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
-
-        public static void run(Environment environment, Node listing, List<Artifact> dest) throws Exception {
+        public static void run(Node<?> listing, Artifact.Handler dest) throws Exception {
             String uri;
-            long size;
-            Date lastModified;
             String sha1;
 
             try (InputStream is = listing.newInputStream(); Parser parser = new Parser(Json.createParser(is))) {
@@ -155,15 +271,11 @@ public class ArtifactoryStorage extends TreeStorage<Artifact, Artifact> {
                 parser.next(JsonParser.Event.START_ARRAY);
                 while (parser.next() == JsonParser.Event.START_OBJECT) {
                     uri = parser.eatKeyValueString("uri");
-                    size = parser.eatKeyValueNumber("size");
-                    try {
-                        lastModified = FMT.parse(parser.eatKeyValueString("lastModified"));
-                    } catch (ParseException e) {
-                        throw new IllegalStateException();
-                    }
+                    parser.eatKeyValueNumber("size");
+                    parser.eatKeyValueString("lastModified");
                     parser.eatKeyValueFalse("folder");
                     sha1 = parser.eatKeyValueString("sha1");
-                    dest.add(new Artifact(uri, sha1));
+                    dest.handle(new Artifact(uri, sha1));
                     if (parser.eatTimestampsOpt() != JsonParser.Event.END_OBJECT) {
                         throw new IllegalStateException();
                     }
@@ -3,23 +3,20 @@ package net.oneandone.pommes.storage;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import net.oneandone.sushi.fs.NewInputStreamException;
-import net.oneandone.sushi.fs.http.HttpNode;
 import net.oneandone.sushi.fs.http.HttpRoot;
-import net.oneandone.sushi.fs.http.MovedTemporarilyException;
 import net.oneandone.sushi.fs.http.StatusException;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Bitbucket {
     private final HttpRoot root;
+    private final HttpCache cache;
 
-    public Bitbucket(HttpRoot root) {
+    public Bitbucket(HttpRoot root, HttpCache cache) {
         this.root = root;
+        this.cache = cache;
     }
 
     // TODO: always fails with 404 error ...
@@ -31,28 +28,8 @@ public class Bitbucket {
     }
 
     public byte[] readBytes(String project, String repo, String path) throws IOException {
-        String location;
-        HttpNode node;
-
-        node = root.node("projects/" + project + "/repos/" + repo + "/browse/" + path, "raw");
-        while (true) {
-            try {
-                // try to load. To see if we ne a redirected location
-                return node.readBytes();
-            } catch (NewInputStreamException e) {
-                if (e.getCause() instanceof MovedTemporarilyException) {
-                    location = ((MovedTemporarilyException) e.getCause()).location;
-                    try {
-                        node = (HttpNode) node.getWorld().node(location);
-                    } catch (URISyntaxException e1) {
-                        throw new IOException("cannot redirect to location " + location, e);
-                    }
-                    continue;
-                } else {
-                    throw e;
-                }
-            }
-        }
+        // cache follows redirects
+        return cache.readBytes(root.node("projects/" + project + "/repos/" + repo + "/browse/" + path, "raw"));
     }
 
     public List<String> listRepos(String project) throws IOException {
@@ -74,12 +51,10 @@ public class Bitbucket {
         result = new ArrayList<>();
         try {
             all = getPaged("rest/api/1.0/projects/" + project + "/repos/" + repo + "/files/");
-        } catch (NewInputStreamException e) {
-            if (e.getCause() instanceof StatusException cause) {
-                if (cause.getStatusLine().code == 401) {
-                    // happens if the repository is still empty
-                    return result;
-                }
+        } catch (StatusException e) {
+            if (e.getStatusLine().code == 401) {
+                // happens if the repository is still empty
+                return result;
             }
             throw e;
         }
@@ -114,8 +89,6 @@ public class Bitbucket {
     }
 
     private JsonObject getJsonObject(String path, String params) throws IOException {
-        try (Reader src = root.node(path, params).newReader()) {
-            return JsonParser.parseReader(src).getAsJsonObject();
-        }
+        return JsonParser.parseString(cache.readString(root.node(path, params))).getAsJsonObject();
     }
 }
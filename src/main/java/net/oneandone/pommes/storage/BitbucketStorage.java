@@ -35,7 +35,7 @@ public class BitbucketStorage extends TreeStorage<String, String> {
         Bitbucket bb;
 
         world = World.create();
-        bb = new Bitbucket(((HttpNode) world.validNode("https://bitbucket.1and1.org")).getRoot());
+        bb = new Bitbucket(((HttpNode) world.validNode("https://bitbucket.1and1.org")).getRoot(), new HttpCache(null, 0));
         System.out.println("rev: " + new String(bb.readBytes("CISOOPS", "puc", "pom.xml")));
     }
 
@@ -52,7 +52,7 @@ public class BitbucketStorage extends TreeStorage<String, String> {
         super(environment, name);
         this.environment = environment;
         this.bitbucket = bitbucket;
-        this.bb = new Bitbucket(bitbucket.getRoot());
+        this.bb = new Bitbucket(bitbucket.getRoot(), environment.httpCache());
         this.bbProject = bitbucket.getName();
     }
 
@@ -84,8 +84,7 @@ public class BitbucketStorage extends TreeStorage<String, String> {
 
     @Override
     public Node<?> localFile(String repository, String file) throws IOException {
-        byte[] bytes = bb.readBytes(bbProject, repository, file);
-        return environment.world().memoryNode(bytes);
+        return localNode(bb.readBytes(bbProject, repository, file));
     }
 
     @Override
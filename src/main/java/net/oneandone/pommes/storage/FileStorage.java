@@ -20,10 +20,13 @@ import net.oneandone.pommes.cli.Environment;
 import net.oneandone.pommes.cli.Find;
 import net.oneandone.pommes.descriptor.Descriptor;
 import net.oneandone.pommes.descriptor.RawDescriptor;
+import net.oneandone.pommes.scm.CheckoutCache;
+import net.oneandone.pommes.scm.CheckoutWalker;
 import net.oneandone.pommes.scm.Scm;
 import net.oneandone.pommes.scm.ScmUrl;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.NodeInstantiationException;
+import net.oneandone.sushi.fs.World;
 import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.fs.filter.Filter;
 
@@ -31,6 +34,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /** To search files system and subversion */
 public class FileStorage extends TreeStorage<FileStorage.Repo, FileNode> {
@@ -62,11 +66,13 @@ public class FileStorage extends TreeStorage<FileStorage.Repo, FileNode> {
 
     //--
 
+    private final Environment environment;
     private final FileNode root;
     private final Filter exclude;
 
     public FileStorage(Environment environment, String name, FileNode root) {
         super(environment, name);
+        this.environment = environment;
         this.root = root;
         this.exclude = new Filter();
     }
@@ -81,9 +87,17 @@ public class FileStorage extends TreeStorage<FileStorage.Repo, FileNode> {
 
     @Override
     public List<Repo> list() throws IOException {
-        List<Repo> result = new ArrayList<>();
-        scan(root, true, result);
-        return result;
+        World world;
+        CheckoutCache cache;
+        List<Repo> result;
+
+        world = root.getWorld();
+        cache = environment.checkoutCache();
+        result = new ArrayList<>();
+        for (Map.Entry<FileNode, Scm> entry : CheckoutWalker.walk(root, true, path -> exclude.matches(world.file(path.toFile()).getPath()), cache).entrySet()) {
+            result.add(new Repo(entry.getKey(), entry.getValue()));
+        }
+        return result; // cache is saved by the index command, after urls were read and all walks finished
     }
 
     public void scan(FileNode directory, boolean recurse, List<Repo> dest) throws IOException {
@@ -119,7 +133,7 @@ public class FileStorage extends TreeStorage<FileStorage.Repo, FileNode> {
 
     @Override
     public ScmUrl storageUrl(Repo repository) throws IOException {
-        return repository.scm().getUrl(repository.directory());
+        return environment.checkoutCache().url(repository.directory(), repository.scm());
     }
 
     @Override
@@ -106,19 +106,8 @@ public class GiteaStorage extends TreeStorage<GiteaProject, ContentsResponse> {
 
     @Override
     public List<GiteaProject> list() throws IOException {
-        List<String> orgs;
-        orgs = listCurrentUserOrgs();
-        orgs.addAll(listOrganizations());
-
-        if (selectedOrganization == null) {
-            // TODO: duplicates orgs
-            orgs = new ArrayList<>(new HashSet<>(orgs));
-            Collections.sort(orgs);
-        } else {
-            orgs = Collections.singletonList(selectedOrganization);
-        }
         List<GiteaProject> result = new ArrayList<>();
-        for (String org : orgs) {
+        for (String org : organizations()) {
             for (var r : listRepos(org)) {
                 result.add(new GiteaProject(org, r.getName(), r.getDefaultBranch()));
             }
@@ -126,6 +115,25 @@ public class GiteaStorage extends TreeStorage<GiteaProject, ContentsResponse> {
         return result;
     }
 
+    private List<String> organizations() throws IOException {
+        List<String> orgs;
+
+        if (selectedOrganization != null) {
+            return Collections.singletonList(selectedOrganization);
+        }
+        orgs = listCurrentUserOrgs();
+        orgs.addAll(listOrganizations());
+        // TODO: duplicates orgs
+        orgs = new ArrayList<>(new HashSet<>(orgs));
+        Collections.sort(orgs);
+        return orgs;
+    }
+
+    @Override
+    public String repositoryPathOpt(GiteaProject repository) {
+        return repository.org() + "/" + repository.repo();
+    }
+
     @Override
     public List<ContentsResponse> listRoot(GiteaProject entry) throws IOException {
         try {
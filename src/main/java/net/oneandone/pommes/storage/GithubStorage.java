@@ -26,7 +26,6 @@ import net.oneandone.pommes.scm.ScmUrl;
 import net.oneandone.pommes.scm.ScmUrlException;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.NodeInstantiationException;
-import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.fs.http.HttpNode;
 import net.oneandone.sushi.fs.http.model.HeaderList;
 
@@ -74,8 +73,13 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
         root.getRoot().addExtraHeader("Authorization", "Bearer " + token);
     }
 
+    @Override
     public void addOption(String option) {
-        groupsOrUsers.add(option);
+        if (option.contains("=")) {
+            super.addOption(option);
+        } else {
+            groupsOrUsers.add(option);
+        }
     }
 
     // curl "https://api.github.com/repos/mlhartme/pommes"
@@ -83,7 +87,7 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
         HttpNode url;
 
         url = root.join("repos", org, name);
-        return mapper.readValue(url.readString(), GithubRepo.class);
+        return mapper.readValue(environment.httpCache().readString(url), GithubRepo.class);
     }
 
     public String branchRevision(GithubRepo repo, String branch) throws IOException {
@@ -91,7 +95,7 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
         Branch obj;
 
         url = root.join("repos", repo.full_name, "branches", branch);
-        obj = mapper.readValue(url.readString(), Branch.class);
+        obj = mapper.readValue(environment.httpCache().readString(url), Branch.class);
         return obj.commit.sha;
     }
 
@@ -104,13 +108,9 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
         List<GithubRepo> step;
 
         result = new ArrayList<>();
-        if (orgOrUser.startsWith("~")) {
-            url = root.join("users", orgOrUser.substring(1), "repos");
-        } else {
-            url = root.join("orgs", orgOrUser, "repos");
-        }
+        url = reposNode(orgOrUser);
         for (int page = 1; true; page++) {
-            str = page(url, page).readString();
+            str = environment.httpCache().readString(page(url, page));
             step = mapper.readValue(str, new TypeReference<>() {});
             result.addAll(step);
             if (step.size() < PAGE_SIZE) {
@@ -119,10 +119,22 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
         }
     }
 
+    private HttpNode reposNode(String orgOrUser) {
+        if (orgOrUser.startsWith("~")) {
+            return root.join("users", orgOrUser.substring(1), "repos");
+        } else {
+            return root.join("orgs", orgOrUser, "repos");
+        }
+    }
+
     private HttpNode page(HttpNode url, int page) {
         return url.withParameter("page", page).withParameter("per_page", PAGE_SIZE);
     }
 
+    /**
+     * No incremental listing: github cannot list deleted repositories, and listing pages embed pushed_at, so they change all the time.
+     * Detecting deletions would need the full listing anyway; the pushed_at fingerprint already skips unchanged repositories.
+     */
     @Override
     public List<GithubRepo> list() throws IOException {
         if (groupsOrUsers.isEmpty()) {
@@ -135,6 +147,16 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
         return result;
     }
 
+    /** pushed_at changes with every push, so it's a conservative fingerprint */
+    @Override
+    public String repositoryRevisionOpt(GithubRepo repository) throws IOException {
+        return repository.pushed_at() == null ? null : repository.default_branch() + "@" + repository.pushed_at();
+    }
+
+    @Override
+    public String repositoryPathOpt(GithubRepo repository) {
+        return repository.full_name();
+    }
 
     public HttpNode fileNode(GithubRepo repo, String path) {
         HttpNode url = root.join("repos", repo.full_name, "contents", path);
@@ -149,7 +171,7 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
         String str;
 
         url = root.join("repos", repo.full_name, "contents"); // caution: not paginated!
-        str = url.readString();
+        str = environment.httpCache().readString(url);
         return mapper.readValue(str, new TypeReference<>() {});
     }
 
@@ -169,10 +191,8 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
     }
 
     @Override
-    public FileNode localFile(GithubRepo repository, GithubFile file) throws IOException {
-        FileNode local = environment.world().getTemp().createTempFile();
-        fileNode(repository, file.path()).copyFile(local);
-        return local;
+    public Node<?> localFile(GithubRepo repository, GithubFile file) throws IOException {
+        return localNode(environment.httpCache().readBytes(fileNode(repository, file.path())));
     }
 
     @Override
@@ -190,7 +210,8 @@ public class GithubStorage extends TreeStorage<GithubStorage.GithubRepo, GithubS
     private GitUrl repoUrl(GithubRepo repo) throws ScmUrlException {
         return GitUrl.create(repo.clone_url);
     }
-    public record GithubRepo(int id, String name, String full_name, String url, String clone_url, String git_url, String default_branch) {
+    public record GithubRepo(int id, String name, String full_name, String url, String clone_url, String git_url, String default_branch,
+                            String pushed_at) {
     }
 
     public record GithubFile(String path) {
@@ -27,13 +27,16 @@ import net.oneandone.pommes.scm.ScmUrl;
 import net.oneandone.pommes.scm.ScmUrlException;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.NodeInstantiationException;
-import net.oneandone.sushi.fs.file.FileNode;
 import net.oneandone.sushi.fs.http.HttpNode;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 
 public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, GitlabStorage.TreeItem> {
     public static GitlabStorage create(Environment environment, String storage, String url) throws URISyntaxException, IOException {
@@ -56,19 +59,23 @@ public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, Gitl
         this.groupsOrUsers = new ArrayList<>();
     }
 
+    @Override
     public void addOption(String option) {
-        groupsOrUsers.add(option);
+        if (option.contains("=")) {
+            super.addOption(option);
+        } else {
+            groupsOrUsers.add(option);
+        }
     }
 
     // https://docs.gitlab.com/ee/api/groups.html#list-a-groups-projects
     public List<GitlabProject> listGroupOrUserProjects(String groupOrUsers) throws IOException {
-        List<GitlabProject> result;
-        List<GitlabProject> step;
-        String str;
+        return listGroupOrUserProjects(groupOrUsers, UnaryOperator.identity());
+    }
+
+    private List<GitlabProject> listGroupOrUserProjects(String groupOrUsers, UnaryOperator<HttpNode> parameters) throws IOException {
         HttpNode url;
 
-        result = new ArrayList<>();
-        int pageSize = 80;
         if (groupOrUsers.startsWith("~")) {
             url = root.join("users", groupOrUsers.substring(1), "projects");
         } else {
@@ -77,28 +84,27 @@ public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, Gitl
         url = url.withParameter("include_subgroups", "true")
                 .withParameter("archived", "false")
                 .withParameter("with_shared", "false");
-        for (int page = 1; true; page++) {
-            str = url.withParameter("page", page).withParameter("per_page", pageSize).readString();
-            step = mapper.readValue(str, new TypeReference<>() {});
-            result.addAll(step);
-            if (step.size() < pageSize) {
-                break;
-            }
-        }
-        return result;
+        return listProjects(parameters.apply(url));
     }
 
     public List<GitlabProject> listAllProjects() throws IOException {
+        return listAllProjects(UnaryOperator.identity());
+    }
+
+    // https://docs.gitlab.com/ee/api/projects.html#list-all-projects
+    private List<GitlabProject> listAllProjects(UnaryOperator<HttpNode> parameters) throws IOException {
+        return listProjects(parameters.apply(root.join("projects").withParameter("archived", "false")));
+    }
+
+    private List<GitlabProject> listProjects(HttpNode url) throws IOException {
         List<GitlabProject> result;
         List<GitlabProject> step;
         String str;
-        HttpNode url;
 
         result = new ArrayList<>();
         int pageSize = 80;
-        url = root.join("projects");
         for (int page = 1; true; page++) {
-            str = url.withParameter("page", page).withParameter("per_page", pageSize).readString();
+            str = environment.httpCache().readString(url.withParameter("page", page).withParameter("per_page", pageSize));
             step = mapper.readValue(str, new TypeReference<>() {});
             result.addAll(step);
             if (step.size() < pageSize) {
@@ -113,7 +119,7 @@ public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, Gitl
         Branch obj;
 
         url = root.join("projects", Long.toString(project.id()), "repository/branches", branch);
-        obj = mapper.readValue(url.readString(), Branch.class);
+        obj = mapper.readValue(environment.httpCache().readString(url), Branch.class);
         return obj.commit.id;
     }
 
@@ -121,7 +127,7 @@ public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, Gitl
         HttpNode url;
 
         url = root.join("projects", Long.toString(id));
-        return mapper.readValue(url.readString(), GitlabProject.class);
+        return mapper.readValue(environment.httpCache().readString(url), GitlabProject.class);
     }
 
     private static String or(String left, String right) {
@@ -144,14 +150,36 @@ public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, Gitl
 
     @Override
     public List<GitlabProject> list() throws IOException {
+        return list(UnaryOperator.identity());
+    }
+
+    /** server-side filtering; last_activity_at is updated at most once per hour, the watermark overlap covers that */
+    @Override
+    public List<GitlabProject> listChangedOpt(Instant since) throws IOException {
+        return list(url -> url.withParameter("last_activity_after", since.toString()));
+    }
+
+    /** simple listings are much smaller */
+    @Override
+    public Set<String> listRepositoryPathsOpt() throws IOException {
+        Set<String> result;
+
+        result = new HashSet<>();
+        for (GitlabProject project : list(url -> url.withParameter("simple", "true"))) {
+            result.add(project.path_with_namespace());
+        }
+        return result;
+    }
+
+    private List<GitlabProject> list(UnaryOperator<HttpNode> parameters) throws IOException {
         List<GitlabProject> result;
 
         if (groupsOrUsers.isEmpty()) {
-            result = listAllProjects();
+            result = listAllProjects(parameters);
         } else {
             result = new ArrayList<>();
             for (String groupOrUser : groupsOrUsers) {
-                result.addAll(listGroupOrUserProjects(groupOrUser));
+                result.addAll(listGroupOrUserProjects(groupOrUser, parameters));
             }
         }
         return result.stream().filter(p -> !Boolean.TRUE.equals(p.archived)).toList();
@@ -170,10 +198,21 @@ public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, Gitl
         url = root.join("projects", Long.toString(project.id()), "repository/tree");
         url.withParameter("per_page", 100);
         url.withParameter("ref", or(project.default_branch(), "main"));
-        items = mapper.readValue(url.readString(), new TypeReference<>() {});
+        items = mapper.readValue(environment.httpCache().readString(url), new TypeReference<>() {});
         return items.stream().filter((item) -> "blob".equals(item.type())).toList();
     }
 
+    /** last_activity_at is updated at most once per hour, so it's not suitable; one request is still cheaper than a download */
+    @Override
+    public String repositoryRevisionOpt(GitlabProject repository) throws IOException {
+        return repository.default_branch() == null ? null : branchRevision(repository, repository.default_branch());
+    }
+
+    @Override
+    public String repositoryPathOpt(GitlabProject repository) {
+        return repository.path_with_namespace();
+    }
+
     @Override
     public String fileName(GitlabStorage.TreeItem file) {
         return file.name();
@@ -190,14 +229,10 @@ public class GitlabStorage extends TreeStorage<GitlabStorage.GitlabProject, Gitl
     }
 
     @Override
-    public FileNode localFile(GitlabProject repository, TreeItem file) throws IOException {
-        FileNode local;
-
-        local = environment.world().getTemp().createTempFile();
+    public Node<?> localFile(GitlabProject repository, TreeItem file) throws IOException {
         HttpNode url = root.join("projects", Long.toString(repository.id()), "repository/files", file.name(), "raw");
         url = url.withParameter("ref", repository.default_branch());
-        url.copyFile(local);
-        return local;
+        return localNode(environment.httpCache().readBytes(url));
     }
 
     @Override
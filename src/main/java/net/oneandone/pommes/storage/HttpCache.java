@@ -0,0 +1,302 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.storage;
+
+import net.oneandone.sushi.fs.FileNotFoundException;
+import net.oneandone.sushi.fs.file.FileNode;
+import net.oneandone.sushi.fs.http.HttpNode;
+import net.oneandone.sushi.fs.http.StatusException;
+import net.oneandone.sushi.fs.http.model.Header;
+import net.oneandone.sushi.fs.http.model.Request;
+import net.oneandone.sushi.fs.http.model.Response;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache for http get requests. Responses with an ETag or Last-Modified header are stored, later requests
+ * revalidate them with If-None-Match or If-Modified-Since and use the stored body when the server answers 304.
+ * Least recently used entries are evicted when the cache exceeds its size. Thread-safe.
+ * Responses to authenticated requests are stored in plain text, thus the cache directory is accessible by its owner only.
+ */
+public class HttpCache {
+    public static final int DEFAULT_MEGABYTES = 100;
+
+    private static final int MAX_REDIRECTS = 5;
+    /** file with validator lines, an empty line and the body */
+    private static final String ENTRY = ".entry";
+    private static final String ETAG = "etag=";
+    private static final String LAST_MODIFIED = "last-modified=";
+
+    /** null to disable caching */
+    private final FileNode directory;
+    private final long maxSize;
+
+    private boolean prepared;
+    /** total size of cached entries; -1 if not yet computed */
+    private final AtomicLong size;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public HttpCache(FileNode directory, long maxSize) {
+        this.directory = maxSize > 0 ? directory : null;
+        this.maxSize = maxSize;
+        this.prepared = false;
+        this.size = new AtomicLong(-1);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    public String readString(HttpNode node) throws IOException {
+        return new String(readBytes(node), StandardCharsets.UTF_8);
+    }
+
+    /** Like node.readBytes(), but follows redirects and uses cached bodies if possible. */
+    public byte[] readBytes(HttpNode node) throws IOException {
+        Response response;
+        String location;
+
+        for (int i = 0; i < MAX_REDIRECTS; i++) {
+            response = get(node);
+            switch (response.getStatusLine().code) {
+                case 200:
+                case 304: // only if revalidated, get already filled in the cached body
+                    return response.getBodyBytes();
+                case 301:
+                case 302:
+                case 303:
+                case 307:
+                case 308:
+                    location = response.getHeaderList().getFirstValue("Location");
+                    if (location == null) {
+                        throw StatusException.forResponse(node, response);
+                    }
+                    try {
+                        node = (HttpNode) node.getWorld().node(location);
+                    } catch (URISyntaxException e) {
+                        throw new IOException("cannot redirect to location " + location, e);
+                    }
+                    break;
+                default:
+                    throw StatusException.forResponse(node, response);
+            }
+        }
+        throw new IOException(node.getUri() + ": too many redirects");
+    }
+
+    public String summary() {
+        return "http cache: " + hits.get() + " hits, " + misses.get() + " misses";
+    }
+
+    //--
+
+    /** @return response; status 304 with the cached body if revalidation succeeded */
+    private Response get(HttpNode node) throws IOException {
+        String key;
+        FileNode file;
+        byte[] entry;
+        int separator;
+        Request request;
+        Response response;
+
+        if (directory == null) {
+            return new Request("GET", node).request();
+        }
+        prepare();
+        key = key(node);
+        file = directory.join(key + ENTRY);
+        entry = readBytesOpt(file);
+        separator = entry == null ? -1 : separator(entry);
+        request = new Request("GET", node);
+        if (separator != -1) {
+            for (String line : new String(entry, 0, separator, StandardCharsets.UTF_8).split("\n")) {
+                if (line.startsWith(ETAG)) {
+                    request.addRequestHeader("If-None-Match", line.substring(ETAG.length()));
+                } else if (line.startsWith(LAST_MODIFIED)) {
+                    request.addRequestHeader("If-Modified-Since", line.substring(LAST_MODIFIED.length()));
+                }
+            }
+        }
+        response = request.request();
+        if (separator != -1 && response.getStatusLine().code == 304) {
+            try {
+                file.setLastModified(System.currentTimeMillis());
+            } catch (IOException e) {
+                // evicted concurrently, we still have the body
+            }
+            response.setBodyBytes(Arrays.copyOfRange(entry, separator + 2, entry.length));
+            hits.incrementAndGet();
+            return response;
+        }
+        misses.incrementAndGet();
+        if (response.getStatusLine().code == 200) {
+            store(key, response);
+        }
+        return response;
+    }
+
+    private void store(String key, Response response) throws IOException {
+        String etag;
+        String lastModified;
+        List<String> validators;
+        byte[] bytes;
+        byte[] entry;
+
+        etag = response.getHeaderList().getFirstValue("ETag");
+        lastModified = response.getHeaderList().getFirstValue("Last-Modified");
+        if (etag == null && lastModified == null) {
+            return;
+        }
+        bytes = response.getBodyBytes();
+        if (bytes == null || bytes.length > maxSize / 10) {
+            // don't let single responses flush the cache
+            return;
+        }
+        validators = new ArrayList<>();
+        if (etag != null) {
+            validators.add(ETAG + etag);
+        }
+        if (lastModified != null) {
+            validators.add(LAST_MODIFIED + lastModified);
+        }
+        if (size.get() < 0) {
+            size.compareAndSet(-1, computeSize());
+        }
+        entry = (String.join("\n", validators) + "\n\n").getBytes(StandardCharsets.UTF_8);
+        entry = Arrays.copyOf(entry, entry.length + bytes.length);
+        System.arraycopy(bytes, 0, entry, entry.length - bytes.length, bytes.length);
+        write(directory.join(key + ENTRY), entry);
+        if (size.addAndGet(entry.length) > maxSize) {
+            evict();
+        }
+    }
+
+    /** creates the directory if necessary and makes it accessible by its owner only */
+    private synchronized void prepare() throws IOException {
+        if (prepared) {
+            return;
+        }
+        directory.mkdirsOpt();
+        if (directory.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx------"));
+        }
+        prepared = true;
+    }
+
+    /** @return index of the empty line between validators and body, -1 if not found */
+    private static int separator(byte[] entry) {
+        for (int i = 0; i + 1 < entry.length; i++) {
+            if (entry[i] == '\n' && entry[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** removes least recently used entries until the cache is down to 3/4 of its max size */
+    private synchronized void evict() throws IOException {
+        List<FileNode> entries;
+        long total;
+
+        entries = new ArrayList<>();
+        total = 0;
+        for (FileNode file : directory.list()) {
+            if (file.getName().endsWith(ENTRY)) {
+                entries.add(file);
+                total += file.size();
+            }
+        }
+        if (total <= maxSize) {
+            size.set(total);
+            return;
+        }
+        entries.sort(Comparator.comparingLong(HttpCache::lastModified));
+        for (FileNode file : entries) {
+            if (total <= maxSize / 4 * 3) {
+                break;
+            }
+            total -= file.size();
+            file.deleteFileOpt();
+        }
+        size.set(total);
+    }
+
+    private long computeSize() throws IOException {
+        long result;
+
+        result = 0;
+        for (FileNode file : directory.list()) {
+            if (file.getName().endsWith(ENTRY)) {
+                result += file.size();
+            }
+        }
+        return result;
+    }
+
+    private static long lastModified(FileNode file) {
+        try {
+            return file.getLastModified();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /** atomic write, concurrent readers see either the old or the new content */
+    private static void write(FileNode dest, byte[] bytes) throws IOException {
+        FileNode tmp;
+
+        tmp = dest.getParent().createTempFile();
+        tmp.writeBytes(bytes);
+        Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] readBytesOpt(FileNode file) throws IOException {
+        try {
+            return file.readBytes();
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** key is the url plus all headers, because headers like Accept or Authorization affect the response */
+    private static String key(HttpNode node) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(node.getUri().toString().getBytes(StandardCharsets.UTF_8));
+        for (Header header : node.allHeaders()) {
+            digest.update(("\n" + header.name + ": " + header.value).getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
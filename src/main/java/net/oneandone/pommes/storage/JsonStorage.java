@@ -15,9 +15,10 @@
  */
 package net.oneandone.pommes.storage;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import net.oneandone.inline.Console;
 import net.oneandone.pommes.cli.Environment;
 import net.oneandone.pommes.cli.Find;
@@ -28,12 +29,15 @@ import net.oneandone.pommes.descriptor.Descriptor;
 import net.oneandone.sushi.fs.Node;
 import net.oneandone.sushi.fs.NodeInstantiationException;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.concurrent.BlockingQueue;
 import java.util.zip.GZIPInputStream;
 
@@ -53,30 +57,46 @@ public class JsonStorage extends Storage {
         this.node = node;
     }
 
+    /** Streams the file, descriptors are queued while parsing; memory usage is bounded by the largest entry. */
     public void scan(BlockingQueue<Descriptor> dest, Console console) throws IOException, InterruptedException {
-        for (Descriptor descriptor : list()) {
-            dest.put(descriptor);
-        }
-    }
-
-    public List<Descriptor> list() throws IOException {
-        List<Descriptor> result = new ArrayList<>();
-        JsonArray array;
+        JsonObject entry;
+        String raw;
         Descriptor descriptor;
         Project project;
+        MessageDigest digest;
+        int count;
 
-        try (InputStream src = node.getName().endsWith(".gz") ? new GZIPInputStream(node.newInputStream()) : node.newInputStream()) {
-            array = JsonParser.parseReader(new InputStreamReader(src)).getAsJsonArray();
-            for (JsonElement entry : array) {
+        digest = sha1();
+        count = 0;
+        try (InputStream src = node.getName().endsWith(".gz") ? new GZIPInputStream(node.newInputStream()) : node.newInputStream();
+             JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(src), StandardCharsets.UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
                 try {
-                    project = Project.fromJson(entry.getAsJsonObject());
-                    descriptor = new JsonDescriptor(project, name, project.getPath(), node.getWorld().memoryNode(project.toJson().toString()).sha(), null);
+                    entry = JsonParser.parseReader(reader).getAsJsonObject();
+                    raw = entry.toString();
+                    project = Project.fromJson(entry);
+                    // compact form of the entry, cheaper than serializing the project again
+                    descriptor = new JsonDescriptor(project, name, project.getPath(),
+                            HexFormat.of().formatHex(digest.digest(raw.getBytes(StandardCharsets.UTF_8))), null);
+                } catch (JsonParseException e) {
+                    throw new IOException(node + ": json syntax error: " + e.getMessage(), e);
                 } catch (Exception e) {
                     descriptor = new ErrorDescriptor(new IOException("json error: " + e.getMessage(), e), this.name, node.getPath(), "TODO", null);
                 }
-                result.add(descriptor);
+                dest.put(descriptor);
+                count++;
             }
+            reader.endArray();
+        }
+        console.info.println(name + ": " + count + " entries");
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return result;
     }
 }
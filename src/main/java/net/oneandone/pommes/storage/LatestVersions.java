@@ -0,0 +1,91 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.storage;
+
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects poms in Maven repository layout (group/artifact/version/file) and passes the newest versions of every
+ * groupId:artifactId only. Uses Maven version ordering. If a version directory contains multiple poms (e.g. timestamped
+ * snapshots), only the newest one is passed.
+ */
+public class LatestVersions implements Artifact.Handler {
+    private final int count;
+
+    /** maps ga directories to version directories to newest pom */
+    private final Map<String, Map<String, Artifact>> gas;
+
+    /** not in repository layout */
+    private final List<Artifact> others;
+
+    public LatestVersions(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count: " + count);
+        }
+        this.count = count;
+        this.gas = new HashMap<>();
+        this.others = new ArrayList<>();
+    }
+
+    @Override
+    public void handle(Artifact artifact) {
+        String uri;
+        int file;
+        int version;
+        Map<String, Artifact> versions;
+        String versionDirectory;
+        Artifact existing;
+
+        uri = artifact.uri();
+        file = uri.lastIndexOf('/');
+        version = file <= 0 ? -1 : uri.lastIndexOf('/', file - 1);
+        if (version <= 0) {
+            others.add(artifact);
+            return;
+        }
+        versions = gas.computeIfAbsent(uri.substring(0, version), key -> new HashMap<>());
+        versionDirectory = uri.substring(version + 1, file);
+        existing = versions.get(versionDirectory);
+        if (existing == null || compare(existing.name(), artifact.name()) < 0) {
+            versions.put(versionDirectory, artifact);
+        }
+    }
+
+    /** passes all collected artifacts that survive */
+    public void flush(Artifact.Handler dest) throws InterruptedException {
+        List<String> versions;
+
+        for (Artifact artifact : others) {
+            dest.handle(artifact);
+        }
+        for (Map<String, Artifact> ga : gas.values()) {
+            versions = new ArrayList<>(ga.keySet());
+            versions.sort((left, right) -> compare(right, left));
+            for (int i = 0, max = Math.min(count, versions.size()); i < max; i++) {
+                dest.handle(ga.get(versions.get(i)));
+            }
+        }
+    }
+
+    private static int compare(String left, String right) {
+        return new ComparableVersion(left).compareTo(new ComparableVersion(right));
+    }
+}
@@ -23,9 +23,13 @@ import net.oneandone.sushi.fs.file.FileNode;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** A place to get descriptors from. Can list repositories, which in turn can list files. */
 public abstract class Storage {
@@ -63,8 +67,20 @@ public abstract class Storage {
 
     protected final String name;
 
+    /** maps paths of this storage to revisions currently in the database */
+    protected NavigableMap<String, String> indexed;
+
+    /** null for a full scan */
+    protected Instant changedSince;
+
+    /** number of repositories or descriptors that could not be loaded by the last scan */
+    private final AtomicInteger loadErrors;
+
     public Storage(String name) {
         this.name = name;
+        this.indexed = Collections.emptyNavigableMap();
+        this.changedSince = null;
+        this.loadErrors = new AtomicInteger();
     }
 
 
@@ -85,6 +101,25 @@ public abstract class Storage {
         throw new ArgumentException(name + ": excludes not supported: " + exclude);
     }
 
+    /** called before scanning; storages may use these revisions to skip unchanged projects */
+    public void setIndexed(NavigableMap<String, String> indexed) {
+        this.indexed = indexed;
+    }
+
+    /** called before scanning with the start of the last successful scan; storages may use it to scan incrementally */
+    public void setChangedSince(Instant changedSince) {
+        this.changedSince = changedSince;
+    }
+
+    /** call when scan skips something that could not be loaded; the scan is incomplete then */
+    protected void loadFailed() {
+        loadErrors.incrementAndGet();
+    }
+
+    public int getLoadErrors() {
+        return loadErrors.get();
+    }
+
     //--
 
     public abstract void scan(BlockingQueue<Descriptor> dest, Console console) throws IOException, InterruptedException;
@@ -15,62 +15,307 @@
  */
 package net.oneandone.pommes.storage;
 
+import net.oneandone.inline.ArgumentException;
 import net.oneandone.inline.Console;
 import net.oneandone.pommes.cli.Environment;
 import net.oneandone.pommes.descriptor.Descriptor;
+import net.oneandone.pommes.descriptor.UnchangedDescriptor;
 import net.oneandone.pommes.scm.ScmUrl;
 import net.oneandone.sushi.fs.Node;
+import net.oneandone.sushi.fs.file.FileNode;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /** Storage organized as hierarchy of repositories and files */
 public abstract class TreeStorage<R, F> extends Storage {
+    protected static final String PARALLEL = "parallel=";
+    protected static final String ORDERED = "ordered=";
+
+    /** descriptor content up to this size is kept in memory, larger content goes to temp files */
+    public static final int MEMORY_LIMIT = 1024 * 1024;
+
     private final Environment environment;
 
+    /** number of repositories loaded concurrently; 1 to load them one after the other */
+    private int parallel;
+
+    /** true to pass descriptors in listing order, even if repositories are loaded concurrently */
+    private boolean ordered;
+
     public TreeStorage(Environment environment, String name) {
         super(name);
         this.environment = environment;
+        this.parallel = 1;
+        this.ordered = false;
     }
 
-    public void scan(BlockingQueue<Descriptor> dest, Console console) throws IOException, InterruptedException {
-        console.info.print("collecting repositories ...");
-        console.info.flush();
-        List<R> repositories = list();
-        console.info.println(" done: " + repositories.size());
-        for (R repository : repositories) {
+    /** @return true for options that affect how repositories are loaded, but not which ones */
+    public static boolean isTuningOption(String option) {
+        return option.startsWith(PARALLEL) || option.startsWith(ORDERED);
+    }
+
+    @Override
+    public void addOption(String option) {
+        if (option.startsWith(PARALLEL)) {
             try {
-                var descriptor = load(repository);
-                if (descriptor != null) {
-                    dest.put(descriptor);
+                parallel = Integer.parseInt(option.substring(PARALLEL.length()));
+            } catch (NumberFormatException e) {
+                throw new ArgumentException(name + ": invalid number: " + option);
+            }
+            if (parallel < 1) {
+                throw new ArgumentException(name + ": parallel expected to be positive: " + parallel);
+            }
+        } else if (option.startsWith(ORDERED)) {
+            ordered = Boolean.parseBoolean(option.substring(ORDERED.length()));
+        } else {
+            super.addOption(option);
+        }
+    }
+
+    public void scan(BlockingQueue<Descriptor> dest, Console console) throws IOException, InterruptedException {
+        List<R> repositories;
+        Set<String> alive;
+        Set<String> failed;
+        Set<String> loaded;
+        Set<String> unchanged;
+
+        repositories = null;
+        alive = null;
+        if (changedSince != null) {
+            console.verbose.println(name + ": collecting repositories changed since " + changedSince + " ...");
+            repositories = listChangedOpt(changedSince);
+            if (repositories != null) {
+                alive = listRepositoryPathsOpt();
+                if (alive == null) {
+                    repositories = null;
                 }
-            } catch (IOException e) {
-                console.error.println("cannot load descriptor from repository " + repository + ": " + e.getMessage());
-                e.printStackTrace(console.verbose);
             }
         }
+        if (repositories == null) {
+            console.verbose.println(name + ": collecting repositories ...");
+            repositories = list();
+            console.info.println(name + ": " + repositories.size() + " repositories");
+        } else {
+            console.info.println(name + ": " + repositories.size() + " of " + alive.size() + " repositories changed");
+        }
+        failed = ConcurrentHashMap.newKeySet();
+        if (parallel == 1) {
+            for (R repository : repositories) {
+                put(loadChecked(repository, failed, console), dest);
+            }
+        } else {
+            scanParallel(repositories, failed, dest, console);
+        }
+        if (alive != null) {
+            loaded = new HashSet<>();
+            for (R repository : repositories) {
+                loaded.add(repositoryPathOpt(repository));
+            }
+            loaded.removeAll(failed);
+            unchanged = new HashSet<>(alive);
+            unchanged.removeAll(loaded);
+            keep(unchanged, dest);
+        } else {
+            keep(failed, dest);
+        }
+    }
+
+    /**
+     * Keeps indexed projects of the specified repositories, i.e. repositories that did not change or could not be loaded.
+     * @param repositoryPaths as returned by repositoryPathOpt
+     */
+    private void keep(Set<String> repositoryPaths, BlockingQueue<Descriptor> dest) throws InterruptedException {
+        String repository;
+
+        for (Map.Entry<String, String> entry : indexed.entrySet()) {
+            repository = repositoryOf(entry.getKey(), repositoryPaths);
+            if (repository != null) {
+                dest.put(new UnchangedDescriptor(name, entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /** @return repository path of the specified descriptor path, null if there's no such repository */
+    private static String repositoryOf(String path, Set<String> repositoryPaths) {
+        int idx;
+
+        if (repositoryPaths.contains(path)) {
+            return path;
+        }
+        idx = path.lastIndexOf('/');
+        if (idx != -1 && repositoryPaths.contains(path.substring(0, idx))) {
+            return path.substring(0, idx);
+        }
+        return null;
+    }
+
+    private void scanParallel(List<R> repositories, Set<String> failed, BlockingQueue<Descriptor> dest, Console console)
+            throws IOException, InterruptedException {
+        ExecutorService executor;
+        CompletionService<Descriptor> completion;
+        List<Future<Descriptor>> futures;
+
+        console.verbose.println("loading repositories with " + parallel + " threads, ordered=" + ordered);
+        executor = Executors.newFixedThreadPool(parallel);
+        try {
+            completion = new ExecutorCompletionService<>(executor);
+            futures = new ArrayList<>(repositories.size());
+            for (R repository : repositories) {
+                futures.add(completion.submit(() -> loadChecked(repository, failed, console)));
+            }
+            if (ordered) {
+                for (Future<Descriptor> future : futures) {
+                    put(get(future), dest);
+                }
+            } else {
+                for (int i = 0; i < futures.size(); i++) {
+                    put(get(completion.take()), dest);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Descriptor get(Future<Descriptor> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static void put(Descriptor descriptor, BlockingQueue<Descriptor> dest) throws InterruptedException {
+        if (descriptor != null) {
+            dest.put(descriptor);
+        }
+    }
+
+    /**
+     * @param failed to add the path of the repository if loading failed
+     * @return null if the repository has no descriptor or if loading failed; errors are reported to the console
+     */
+    private Descriptor loadChecked(R repository, Set<String> failed, Console console) {
+        String path;
+
+        try {
+            return load(repository);
+        } catch (IOException e) {
+            console.error.println("cannot load descriptor from repository " + repository + ": " + e.getMessage());
+            e.printStackTrace(console.verbose);
+            loadFailed();
+            path = repositoryPathOpt(repository);
+            if (path != null) {
+                failed.add(path);
+            }
+            return null;
+        }
     }
 
     /** Load descriptor from repository. */
     public Descriptor load(R repository) throws IOException {
+        String fingerprint;
+        String unchanged;
+
+        fingerprint = repositoryRevisionOpt(repository);
+        if (fingerprint != null) {
+            unchanged = unchangedPathOpt(repositoryPathOpt(repository), fingerprint);
+            if (unchanged != null) {
+                return new UnchangedDescriptor(name, unchanged, fingerprint);
+            }
+        }
         for (F file : listRoot(repository)) {
             var creator = Descriptor.match(fileName(file));
             if (creator != null) {
                 // TODO: when to delete directory?
                 Node<?> local = localFile(repository, file);
-                return creator.create(environment, local, this.name,
-                        repositoryPath(repository, file), fileRevision(repository, file, local), storageUrl(repository));
+                return creator.create(environment, local, this.name, repositoryPath(repository, file),
+                        fingerprint != null ? fingerprint : fileRevision(repository, file, local), storageUrl(repository));
             }
         }
         return createDefault(repository);
     }
 
+    /**
+     * @param repositoryPath path of the repository, descriptor paths are this path or this path plus a root file name
+     * @return path of the indexed descriptor with the specified revision, null if none
+     */
+    private String unchangedPathOpt(String repositoryPath, String revision) {
+        if (repositoryPath == null) {
+            return null;
+        }
+        if (revision.equals(indexed.get(repositoryPath))) {
+            return repositoryPath;
+        }
+        // '0' is the character after '/'
+        for (Map.Entry<String, String> entry : indexed.subMap(repositoryPath + "/", repositoryPath + "0").entrySet()) {
+            if (entry.getKey().indexOf('/', repositoryPath.length() + 1) == -1 && revision.equals(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
     //--
 
     /** List repositories in the storage */
     public abstract List<R> list() throws IOException;
 
+    /**
+     * Override to return a cheap fingerprint that changes whenever the repository changes, typically taken from the listing.
+     * Used as descriptor revision, repositories with an unchanged fingerprint are skipped without listing or downloading files.
+     * Overriding also requires repositoryPathOpt.
+     *
+     * @return null if not available
+     */
+    public String repositoryRevisionOpt(R repository) throws IOException {
+        return null;
+    }
+
+    /** @return path descriptors of this repository start with; null if not available */
+    public String repositoryPathOpt(R repository) {
+        return null;
+    }
+
+    /**
+     * Override to support incremental scans. Has to return at least all repositories with changes since the specified time,
+     * ideally with server-side filtering. Overriding also requires repositoryPathOpt and listRepositoryPathsOpt.
+     *
+     * @return null if not supported
+     */
+    public List<R> listChangedOpt(Instant since) throws IOException {
+        return null;
+    }
+
+    /**
+     * Override to support incremental scans: cheap listing to detect deleted repositories.
+     *
+     * @return paths (as returned by repositoryPathOpt) of all repositories; null if not supported
+     */
+    public Set<String> listRepositoryPathsOpt() throws IOException {
+        return null;
+    }
+
     /** list top-level files in the repository */
     public abstract List<F> listRoot(R repository) throws IOException;
     public abstract String fileName(F file);
@@ -82,5 +327,17 @@ public abstract class TreeStorage<R, F> extends Storage {
     public abstract String repositoryPath(R repository, F file) throws IOException;
 
     public abstract Node<?> localFile(R repository, F file) throws IOException;
+
+    /** @return memory node unless the content exceeds MEMORY_LIMIT, to save temp file writes and deletes for every descriptor */
+    protected Node<?> localNode(byte[] content) throws IOException {
+        FileNode result;
+
+        if (content.length <= MEMORY_LIMIT) {
+            return environment.world().memoryNode(content);
+        }
+        result = environment.world().getTemp().createTempFile();
+        result.writeBytes(content);
+        return result;
+    }
     public abstract String fileRevision(R repository, F f, Node<?> local) throws IOException;
 }
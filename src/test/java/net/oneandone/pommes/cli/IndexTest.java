@@ -0,0 +1,39 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class IndexTest {
+    @Test
+    public void watermark() {
+        Instant started;
+        String watermark;
+
+        started = Instant.parse("2024-01-02T03:04:05.678Z");
+        watermark = Index.watermark(started, "gitlab:https://gitlab.example.com %parallel=4 group");
+        assertEquals(started, Index.watermarkOpt(watermark, "gitlab:https://gitlab.example.com %parallel=4 group"));
+        assertNull(Index.watermarkOpt(watermark, "gitlab:https://gitlab.example.com %parallel=4 group other"));
+        assertEquals(started, Index.watermarkOpt(watermark, "gitlab:https://gitlab.example.com %parallel=8 %ordered=true group"));
+        assertNull(Index.watermarkOpt(started.toString(), "gitlab:https://gitlab.example.com")); // without hash
+        assertNull(Index.watermarkOpt(null, "gitlab:https://gitlab.example.com"));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.cli;
+
+import net.oneandone.maven.summon.api.Maven;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MavenPoolTest {
+    @Test
+    public void confined() throws Exception {
+        MavenPool pool;
+        Set<Maven> all;
+        Set<Maven> busy;
+        ExecutorService executor;
+        List<Future<Boolean>> futures;
+
+        pool = new MavenPool(2);
+        all = ConcurrentHashMap.newKeySet();
+        busy = ConcurrentHashMap.newKeySet();
+        executor = Executors.newFixedThreadPool(6);
+        try {
+            futures = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                futures.add(executor.submit(() -> pool.run(maven -> {
+                    boolean exclusive;
+
+                    all.add(maven);
+                    exclusive = busy.add(maven);
+                    Thread.sleep(20);
+                    busy.remove(maven);
+                    return exclusive;
+                })));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, all.size());
+    }
+
+    @Test
+    public void creationFailure() throws Exception {
+        AtomicInteger attempts;
+        MavenPool pool;
+        ExecutorService executor;
+        List<Future<Boolean>> futures;
+        int failed;
+
+        attempts = new AtomicInteger();
+        pool = new MavenPool(1) {
+            @Override
+            Maven create() throws IOException {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IOException("first creation fails");
+                }
+                return super.create();
+            }
+        };
+        executor = Executors.newFixedThreadPool(3);
+        try {
+            futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(executor.submit(() -> pool.run(maven -> {
+                    Thread.sleep(20);
+                    return true;
+                })));
+            }
+            failed = 0;
+            for (Future<Boolean> future : futures) {
+                try {
+                    assertTrue(future.get(1, TimeUnit.MINUTES)); // waiting threads are not blocked by the failure
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                    failed++;
+                }
+            }
+            assertEquals(1, failed);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, attempts.get());
+    }
+}
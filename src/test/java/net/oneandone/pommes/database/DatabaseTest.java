@@ -0,0 +1,285 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.database;
+
+import net.oneandone.inline.Console;
+import net.oneandone.pommes.scm.Scm;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DatabaseTest {
+    private FileNode dir;
+    private Database database;
+
+    @BeforeEach
+    public void before() throws IOException {
+        dir = World.create().getTemp().createTempDirectory().join("database");
+        database = null;
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        try {
+            if (database != null) {
+                database.close();
+            }
+        } finally {
+            dir.getParent().deleteTree();
+        }
+    }
+
+    /** opens the database; closes the current one first, so tests can reopen it */
+    private void load() throws IOException {
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+        database = Database.load(dir, Console.create());
+    }
+
+    private void index(Project... projects) throws IOException {
+        List<Document> documents;
+
+        documents = new ArrayList<>();
+        for (Project project : projects) {
+            documents.add(Field.document(project));
+        }
+        database.index(documents.iterator());
+    }
+
+    private static Project project(String artifactId) {
+        return new Project("s", artifactId + "/pom.xml", "1", null, new Gav("g", artifactId, "1"),
+                Scm.createValidUrl("git:https://github.com/acme/" + artifactId), null);
+    }
+
+    private static Project project(String artifactId, String... dependencies) {
+        Project result;
+
+        result = project(artifactId);
+        for (String dependency : dependencies) {
+            result.dependencies.add(Gav.forGav(dependency));
+        }
+        return result;
+    }
+
+    private int count(String query) throws IOException {
+        return database.query(PommesQuery.parse(query)).size();
+    }
+
+    @Test
+    public void batched() throws IOException {
+        Map<String, String> revisions;
+
+        load();
+        database.index(List.of(Field.document(project("a")), Field.document(project("b"))).iterator(),
+                List::of, () -> Map.of("key", "value"));
+        // visible before commit
+        assertEquals(1, count("a:a"));
+        assertEquals(new Gav("g", "b", "1"), database.projectByArtifactOpt(new Gav("g", "b", "1")).artifact);
+        assertEquals("value", database.getCommitData("key"));
+        database.index(Collections.emptyIterator(), () -> List.of("s:a/pom.xml"), Map::of);
+        assertEquals(0, count("a:a"));
+        database.commit();
+
+        load();
+        revisions = new HashMap<>();
+        database.list("s", revisions);
+        assertEquals(Map.of("s:b/pom.xml", "1"), revisions);
+        assertEquals("value", database.getCommitData("key"));
+        assertNull(database.projectByArtifactOpt(new Gav("g", "a", "1")));
+    }
+
+    @Test
+    public void uncommitted() throws IOException {
+        load();
+        index(project("a"));
+        database.commit();
+        index(project("b"));
+        assertEquals(2, count(""));
+        load(); // closing discards uncommitted changes
+        assertEquals(1, count(""));
+        index(project("c"));
+        database.rollback();
+        assertEquals(1, count(""));
+    }
+
+    @Test
+    public void wildcards() throws IOException {
+        load();
+        index(project("abcXbcd"), project("abcd"));
+        assertEquals(2, count("a:ab*d"));
+        assertEquals(1, count("a=g:ab?d:1"));
+        assertEquals(1, count("a^g:abc?b"));
+        assertEquals(1, count("a%X*:1"));
+        assertTrue(database.explain(PommesQuery.parse("a:ab*d")).contains("WildcardQuery"));
+    }
+
+    @Test
+    public void unlocked() throws IOException {
+        load(); // creates the database
+        try (Directory directory = FSDirectory.open(dir.toPath()); IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            assertEquals(0, writer.getDocStats().numDocs);
+        }
+    }
+
+    @Test
+    public void substring() throws IOException {
+        load();
+        index(project("abcXbcd", "org.slf4j:slf4j-api:2.0.9", "junit:junit:4.13"),
+                project("abcd", "org.slf4j:slf4j-simple:2.0.9"));
+        assertEquals(1, count("abcX"));
+        assertEquals(1, count("a:abcd")); // n-grams of abcXbcd match too, verification drops it
+        assertEquals(2, count("d:slf4j"));
+        assertEquals(1, count("d:slf4j-api"));
+        assertEquals(0, count("d:slf4j-api:4.13")); // n-grams from different dependencies
+        assertEquals(2, count("d:9")); // too short for n-grams
+        assertEquals(2, count(""));
+    }
+
+    @Test
+    public void suffix() throws IOException {
+        load();
+        index(project("a-parent", "org.slf4j:slf4j-api:2.0.9"),
+                project("b-parent-x", "org.slf4j:slf4j-simple:2.0.10"));
+        assertEquals(1, count("a%-parent:1"));
+        assertEquals(0, count("a%-parent"));
+        assertEquals(1, count("d%.10"));
+        assertEquals(2, count("d%"));
+    }
+
+    @Test
+    public void planner() throws IOException {
+        String plan;
+
+        load();
+        index(project("abc", "org.slf4j:slf4j-api:2.0.9"),
+                project("abcd", "org.slf4j:slf4j-simple:2.0.9"),
+                project("xyz"));
+        assertEquals(1, count("a=g:abc:1"));
+        assertEquals(2, count("a^g:ab"));
+        assertEquals(1, count("!a^g:ab"));
+        assertEquals(1, count("d:slf4j+!a=g:abc:1"));
+        assertEquals(0, count("a=g:abc:1+!d:slf4j"));
+        plan = database.explain(PommesQuery.parse("a^g:ab+!a=g:abc:1"));
+        assertTrue(plan.contains("FILTER PrefixQuery"), plan);
+        assertTrue(plan.contains("MUST_NOT TermQuery artifact:g:abc:1, cost 1"), plan);
+    }
+
+    @Test
+    public void coordinates() throws IOException {
+        String plan;
+
+        load();
+        index(project("a", "org.slf4j:slf4j-api:2.0.9", "junit:junit:4.13"),
+                project("b", "org.slf4j:slf4j-api:2.0.10", "org.slf4j:slf4j-simple:2.0.10"),
+                project("c"));
+        assertEquals(2, count("d.g=org.slf4j"));
+        assertEquals(1, count("d.v=4.13"));
+        assertEquals(0, count("d.v=4"));
+        assertEquals(3, count(".g=g"));
+        assertEquals(1, count("a.a=b"));
+        assertEquals(1, count("d.a^slf4j+!d.v%.9"));
+        assertEquals(2, count("d.g:slf4j"));
+        assertEquals(1, count("d.g:unit"));
+        assertEquals(0, count("d.g:api")); // n-gram candidates from the artifact id are rejected
+        assertEquals(1, count("d.a%simple"));
+        assertEquals(0, count("d.a%slf"));
+        plan = database.explain(PommesQuery.parse("d.g:slf4j"));
+        assertTrue(plan.contains("SubstringQuery dep.group:*slf4j*"), plan);
+        assertEquals(Map.of("junit", 1, "org.slf4j", 2), database.group(PommesQuery.parse(""), Field.DEP, Coordinate.GROUP));
+        assertEquals(List.of("2.0.10", "2.0.9", "4.13"),
+                List.copyOf(database.group(PommesQuery.parse("d.g=org.slf4j"), Field.DEP, Coordinate.VERSION).keySet()));
+        assertThrows(IllegalStateException.class, () -> PommesQuery.parse("s.g=org"));
+    }
+
+    @Test
+    public void sorted() throws IOException {
+        List<Document> found;
+        Sort sort;
+
+        load();
+        index(project("a", "org.slf4j:slf4j-api:2.0.9", "junit:junit:4.13"),
+                project("b", "org.slf4j:slf4j-api:2.0.10"),
+                project("c"));
+        database.commit();
+        index(project("d", "ant:ant:1.0")); // second segment
+        found = new ArrayList<>();
+        sort = new Sort(Field.DEP.sortField(Coordinate.VERSION));
+        assertEquals(4, database.query(PommesQuery.parse(""), Set.of("artifact"), sort, 0, 5, found::add));
+        assertEquals(List.of("g:c:1", "g:d:1", "g:b:1", "g:a:1"), found.stream().map(Field.ARTIFACT::get).toList());
+        found.clear();
+        assertEquals(2, database.query(PommesQuery.parse(""), Set.of("artifact"), sort, 1, 2, found::add));
+        assertEquals(List.of("g:d:1", "g:b:1"), found.stream().map(Field.ARTIFACT::get).toList());
+        found.clear();
+        sort = new Sort(Field.ARTIFACT.sortField(Coordinate.ARTIFACT));
+        assertEquals(1, database.query(PommesQuery.parse(""), Set.of("artifact"), sort, 3, 5, found::add));
+        assertEquals(List.of("g:d:1"), found.stream().map(Field.ARTIFACT::get).toList());
+    }
+
+    @Test
+    public void paged() throws IOException {
+        List<Document> found;
+
+        load();
+        index(project("a"), project("b"), project("c"));
+        database.commit();
+        index(project("d")); // second segment
+        found = new ArrayList<>();
+        assertEquals(2, database.query(PommesQuery.parse(""), Set.of("artifact"), null, 1, 2, found::add));
+        assertEquals(List.of("g:b:1", "g:c:1"), found.stream().map(Field.ARTIFACT::get).toList());
+        assertNull(Field.ORIGIN.get(found.get(0)));
+        found.clear();
+        assertEquals(1, database.query(PommesQuery.parse(""), null, null, 3, 5, found::add));
+        assertEquals("s:d/pom.xml", Field.ORIGIN.get(found.get(0)));
+        found.clear();
+        assertEquals(1, database.query(PommesQuery.parse(List.of("g", "2"), null), null, null, 0, 5, found::add));
+        assertEquals("g:b:1", Field.ARTIFACT.get(found.get(0)));
+        assertEquals(0, database.query(PommesQuery.parse(List.of("g", "2"), null), null, null, 1, 5, found::add));
+        assertEquals(4, database.query(PommesQuery.parse("")).size());
+    }
+
+    @Test
+    public void schema() throws IOException {
+        try (Directory directory = FSDirectory.open(dir.mkdirs().toPath()); IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            writer.addDocument(Field.document(project("old")));
+        }
+        load();
+        assertEquals(Database.SCHEMA, database.getCommitData("schema"));
+        assertEquals(0, count(""));
+    }
+}
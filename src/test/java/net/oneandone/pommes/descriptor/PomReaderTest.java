@@ -0,0 +1,200 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.descriptor;
+
+import net.oneandone.inline.Console;
+import net.oneandone.pommes.database.Gav;
+import net.oneandone.pommes.database.Project;
+import net.oneandone.pommes.scm.Scm;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PomReaderTest {
+    private static final String HEAD = "<project xmlns='http://maven.apache.org/POM/4.0.0'><modelVersion>4.0.0</modelVersion>";
+    private static final String SCM = "<scm><connection>scm:git:https://github.com/acme/a.git</connection>"
+            + "<developerConnection>scm:git:ssh://git@github.com/acme/a.git</developerConnection></scm>";
+
+    private static Project parent() {
+        Project result;
+
+        result = new Project("s", "parent/pom.xml", "1", null, new Gav("g", "parent", "1"), Scm.createValidUrl("git:https://github.com/acme/parent"),
+                "https://acme.com/parent/");
+        result.dependencies.add(new Gav("g", "inherited", "2"));
+        result.dependencies.add(new Gav("g", "overridden", "2"));
+        return result;
+    }
+
+    /** deployed poms */
+    private static final Map<Gav, String> REPOSITORY = Map.of(
+            new Gav("corp", "root", "1"), HEAD + "<groupId>corp</groupId><artifactId>root</artifactId><version>1</version><packaging>pom</packaging>"
+                    + "<url>https://corp.com/</url>"
+                    + "<properties><junit.version>5.${junit.minor}</junit.version><junit.minor>0</junit.minor></properties>"
+                    + "<dependencyManagement><dependencies>"
+                    + "  <dependency><groupId>org.junit</groupId><artifactId>junit</artifactId><version>${junit.version}</version></dependency>"
+                    + "  <dependency><groupId>corp</groupId><artifactId>bom</artifactId><version>2</version><type>pom</type><scope>import</scope></dependency>"
+                    + "</dependencies></dependencyManagement>"
+                    + "<dependencies><dependency><groupId>org.junit</groupId><artifactId>junit</artifactId></dependency></dependencies>"
+                    + "</project>",
+            new Gav("corp", "parent", "1"), HEAD + "<parent><groupId>corp</groupId><artifactId>root</artifactId><version>1</version></parent>"
+                    + "<artifactId>parent</artifactId><packaging>pom</packaging>"
+                    + "<properties><junit.minor>1</junit.minor></properties>"
+                    + "<dependencyManagement><dependencies>"
+                    + "  <dependency><groupId>${project.groupId}</groupId><artifactId>sibling</artifactId><version>${project.version}</version></dependency>"
+                    + "</dependencies></dependencyManagement>"
+                    + "</project>",
+            new Gav("corp", "bom", "2"), HEAD + "<groupId>corp</groupId><artifactId>bom</artifactId><version>2</version>"
+                    + "<dependencyManagement><dependencies>"
+                    + "  <dependency><groupId>corp</groupId><artifactId>lib</artifactId><version>${project.version}.0</version></dependency>"
+                    + "</dependencies></dependencyManagement>"
+                    + "</project>");
+
+    private static PomReader reader() {
+        return new PomReader(gav -> gav.equals(parent().artifact) ? parent() : null, gav -> {
+            String pom;
+
+            pom = REPOSITORY.get(gav);
+            return pom == null ? null : pom.getBytes(StandardCharsets.UTF_8);
+        });
+    }
+
+    private static Project read(String pom) throws IOException {
+        return read(reader(), pom, null);
+    }
+
+    private static Project read(PomReader reader, String pom, FileNode file) throws IOException {
+        return reader.readOpt(pom.getBytes(StandardCharsets.UTF_8), file, "s", "a/pom.xml", "r", null, Console.create());
+    }
+
+    @Test
+    public void simple() throws IOException {
+        Project project;
+
+        project = read(HEAD + "<groupId>g</groupId><artifactId>a</artifactId><version>1.0</version>" + SCM
+                + "<url>https://acme.com/a</url>"
+                + "<properties><x.version>3.${minor}</x.version><minor>1</minor></properties>"
+                + "<dependencyManagement><dependencies>"
+                + "  <dependency><groupId>g</groupId><artifactId>managed</artifactId><version>${x.version}</version></dependency>"
+                + "</dependencies></dependencyManagement>"
+                + "<dependencies>"
+                + "  <dependency><groupId>g</groupId><artifactId>d1</artifactId><version>${project.version}</version></dependency>"
+                + "  <dependency><groupId>${project.groupId}</groupId><artifactId>managed</artifactId></dependency>"
+                + "</dependencies>"
+                + "<profiles><profile><id>release</id><properties><gpg>true</gpg></properties></profile></profiles>"
+                + "</project>");
+        assertNull(project.parent);
+        assertEquals(new Gav("g", "a", "1.0"), project.artifact);
+        assertEquals("git:https://github.com/acme/a", project.scm.scmUrl());
+        assertEquals("https://acme.com/a", project.url);
+        assertEquals(List.of(new Gav("g", "d1", "1.0"), new Gav("g", "managed", "3.1")), project.dependencies);
+    }
+
+    @Test
+    public void parentFromDatabase() throws IOException {
+        Project project;
+
+        project = read(HEAD + "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+                + "<artifactId>a</artifactId>" + SCM
+                + "<dependencies><dependency><groupId>g</groupId><artifactId>overridden</artifactId><version>3</version></dependency></dependencies>"
+                + "</project>");
+        assertEquals(new Gav("g", "parent", "1"), project.parent);
+        assertEquals(new Gav("g", "a", "1"), project.artifact);
+        assertEquals("https://acme.com/parent/a/", project.url);
+        assertEquals(List.of(new Gav("g", "overridden", "3"), new Gav("g", "inherited", "2")), project.dependencies);
+    }
+
+    @Test
+    public void parentsFromRepository() throws IOException {
+        PomReader reader;
+        Project project;
+        String pom;
+
+        reader = reader();
+        pom = HEAD + "<parent><groupId>corp</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+                + "<artifactId>a</artifactId><version>7</version>" + SCM
+                + "<dependencies>"
+                + "  <dependency><groupId>corp</groupId><artifactId>sibling</artifactId></dependency>"
+                + "  <dependency><groupId>corp</groupId><artifactId>lib</artifactId></dependency>"
+                + "</dependencies>"
+                + "</project>";
+        project = read(reader, pom, null);
+        assertEquals(new Gav("corp", "parent", "1"), project.parent);
+        assertEquals(new Gav("corp", "a", "7"), project.artifact);
+        assertEquals("https://corp.com/parent/a/", project.url);
+        // properties and managed versions are evaluated in the context of the child
+        assertEquals(List.of(new Gav("corp", "sibling", "7"), new Gav("corp", "lib", "2.0"), new Gav("org.junit", "junit", "5.1")),
+                project.dependencies);
+        assertEquals(project.dependencies, read(reader, pom, null).dependencies);
+        assertTrue(reader.summary().endsWith("parent and bom poms: 3 loaded, 2 reused"), reader.summary());
+    }
+
+    @Test
+    public void parentFromRelativePath() throws IOException {
+        World world;
+        FileNode dir;
+        Project project;
+
+        world = World.create();
+        dir = world.getTemp().createTempDirectory();
+        try {
+            dir.join("pom.xml").writeString(HEAD + "<groupId>corp</groupId><artifactId>parent</artifactId><version>1</version><packaging>pom</packaging>"
+                    + "<properties><d.version>3</d.version></properties></project>");
+            project = read(reader(), HEAD + "<parent><groupId>corp</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+                    + "<artifactId>a</artifactId>" + SCM
+                    + "<dependencies><dependency><groupId>g</groupId><artifactId>d</artifactId><version>${d.version}</version></dependency></dependencies>"
+                    + "</project>", dir.join("a/pom.xml"));
+            assertEquals(List.of(new Gav("g", "d", "3")), project.dependencies);
+        } finally {
+            dir.deleteTree();
+        }
+    }
+
+    @Test
+    public void undecided() throws IOException {
+        // parent not in database
+        assertNull(read(HEAD + "<parent><groupId>g</groupId><artifactId>other</artifactId><version>1</version></parent><artifactId>a</artifactId>"
+                + SCM + "</project>"));
+        // property from parent
+        assertNull(read(HEAD + "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent><artifactId>a</artifactId>"
+                + SCM + "<dependencies><dependency><groupId>g</groupId><artifactId>d</artifactId><version>${d.version}</version></dependency></dependencies>"
+                + "</project>"));
+        // managed by parent
+        assertNull(read(HEAD + "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent><artifactId>a</artifactId>"
+                + SCM + "<dependencies><dependency><groupId>g</groupId><artifactId>d</artifactId></dependency></dependencies></project>"));
+        // profile property
+        assertNull(read(HEAD + "<groupId>g</groupId><artifactId>a</artifactId><version>${v}</version>" + SCM
+                + "<properties><v>1</v></properties><profiles><profile><properties><v>2</v></properties></profile></profiles></project>"));
+        // profile dependencies
+        assertNull(read(HEAD + "<groupId>g</groupId><artifactId>a</artifactId><version>1</version>" + SCM
+                + "<profiles><profile><dependencies/></profile></profiles></project>"));
+        // scm inherited
+        assertNull(read(HEAD + "<groupId>g</groupId><artifactId>a</artifactId><version>1</version></project>"));
+        // cycle
+        assertNull(read(HEAD + "<groupId>g</groupId><artifactId>a</artifactId><version>${a}</version>" + SCM
+                + "<properties><a>${b}</a><b>${a}</b></properties></project>"));
+        // not a pom
+        assertNull(read("<settings/>"));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.scm;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CheckoutWalkerTest {
+    private static final FileTime AGED = FileTime.from(Instant.now().minus(2, ChronoUnit.HOURS));
+
+    private FileNode root;
+
+    @BeforeEach
+    public void before() throws IOException {
+        root = World.create().getTemp().createTempDirectory();
+        for (String path : new String[] { "b/x/.git", "a/.svn", "a/nested/.git", "c/d/e/f/.git", ".hidden/g/.git", "excluded/h/.git", "b/wt" }) {
+            root.join(path).mkdirs();
+        }
+        root.join("file.txt").writeString("");
+        root.join("b/wt/.git").writeString("gitdir: somewhere");
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        root.deleteTree();
+    }
+
+    @Test
+    public void walk() throws IOException {
+        assertEquals(List.of("a", "b/x", "c/d/e/f", "excluded/h"), relative(CheckoutWalker.walk(root, false, path -> false, null)));
+        assertEquals(List.of(".hidden/g", "a", "b/x", "c/d/e/f"),
+                relative(CheckoutWalker.walk(root, true, path -> path.getFileName().toString().equals("excluded"), null)));
+        assertEquals(Scm.SUBVERSION, CheckoutWalker.walk(root, false, path -> false, null).get(root.join("a")));
+        assertEquals(List.of(root.join("a")), new ArrayList<>(CheckoutWalker.walk(root.join("a"), false, path -> false, null).keySet()));
+    }
+
+    @Test
+    public void cache() throws IOException {
+        FileNode file;
+        CheckoutCache cache;
+
+        age(root);
+        file = root.join("checkouts.cache");
+        cache = CheckoutCache.load(file);
+        assertEquals(List.of("a", "b/x", "c/d/e/f", "excluded/h"), relative(CheckoutWalker.walk(root, false, path -> false, cache)));
+        cache.save();
+
+        // unchanged directories are not listed again, so a new checkout in an old directory is not seen
+        root.join("c/d/e/y/.git").mkdirs();
+        age(root.join("c/d/e"));
+        cache = CheckoutCache.load(file);
+        assertEquals(List.of("a", "b/x", "c/d/e/f", "excluded/h"), relative(CheckoutWalker.walk(root, false, path -> false, cache)));
+
+        // but it's seen once the directory's modification time changes
+        Files.setLastModifiedTime(root.join("c/d/e").toPath(), FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS)));
+        assertEquals(List.of("a", "b/x", "c/d/e/f", "c/d/e/y", "excluded/h"), relative(CheckoutWalker.walk(root, false, path -> false, cache)));
+        cache.save();
+        root.join("b/x").deleteTree();
+        assertEquals(List.of("a", "c/d/e/f", "c/d/e/y", "excluded/h"), relative(CheckoutWalker.walk(root, false, path -> false, CheckoutCache.load(file))));
+    }
+
+    /** sets modification times to the past, otherwise they're too recent to be cached */
+    private static void age(FileNode directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : paths.filter(Files::isDirectory).toList()) {
+                Files.setLastModifiedTime(path, AGED);
+            }
+        }
+    }
+
+    private List<String> relative(Map<FileNode, Scm> checkouts) {
+        List<String> result;
+
+        result = new ArrayList<>();
+        for (FileNode checkout : checkouts.keySet()) {
+            result.add(checkout.getRelative(root));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.scm;
+
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GitConfigTest {
+    private FileNode dir;
+
+    @BeforeEach
+    public void before() throws IOException {
+        dir = World.create().getTemp().createTempDirectory();
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        dir.deleteTree();
+    }
+
+    private FileNode checkout(String name, String config) throws IOException {
+        FileNode result;
+
+        result = dir.join(name);
+        result.join(".git").mkdirs();
+        result.join(".git/config").writeString(config);
+        result.join(".git/HEAD").writeString("ref: refs/heads/main\n");
+        return result;
+    }
+
+    @Test
+    public void syntax() throws IOException {
+        GitConfig config;
+
+        config = GitConfig.loadOpt(checkout("p", """
+                # comment
+                [core]
+                \tbare = false ; comment
+                \tfilemode
+                [Remote "origin"]
+                \tURL = "ssh://git@github.com/a/b.git" # comment
+                \tfetch = +refs/heads/*:refs/remotes/origin/*
+                [remote.upstream]
+                \turl = https://github.com/c/\\
+                d.git
+                [alias]
+                \tlg = "log --format=\\"%h \\t%s\\""  
+                """), List.of());
+        assertEquals("false", config.get("core.bare"));
+        assertEquals("true", config.get("core.filemode"));
+        assertEquals("ssh://git@github.com/a/b.git", config.get("remote.origin.url"));
+        assertNull(config.get("remote.Origin.url"));
+        assertEquals("https://github.com/c/d.git", config.get("remote.upstream.url"));
+        assertEquals("log --format=\"%h \t%s\"", config.get("alias.lg"));
+        assertNull(config.get("remote.other.url"));
+    }
+
+    @Test
+    public void includes() throws IOException {
+        FileNode global;
+        FileNode checkout;
+
+        global = dir.join("gitconfig");
+        global.writeString("""
+                [include]
+                \tpath = common.inc
+                [includeIf "gitdir:work/"]
+                \tpath = work.inc
+                [includeIf "gitdir:private/"]
+                \tpath = private.inc
+                [includeIf "onbranch:ma*"]
+                \tpath = branch.inc
+                """);
+        dir.join("common.inc").writeString("[user]\n\tname = common\n\temail = common@example.com\n");
+        dir.join("work.inc").writeString("[user]\n\tname = work\n");
+        dir.join("private.inc").writeString("[user]\n\tname = private\n");
+        dir.join("branch.inc").writeString("[user]\n\temail = main@example.com\n");
+        checkout = checkout("work/p", "[remote \"origin\"]\n\turl = https://example.com/p.git\n");
+        assertEquals("work", GitConfig.loadOpt(checkout, List.of(global)).get("user.name"));
+        assertEquals("main@example.com", GitConfig.loadOpt(checkout, List.of(global)).get("user.email"));
+        checkout = checkout("other/p", "");
+        assertEquals("common", GitConfig.loadOpt(checkout, List.of(global)).get("user.name"));
+    }
+
+    @Test
+    public void unsupported() throws IOException {
+        FileNode checkout;
+
+        checkout = checkout("p", "[includeIf \"hasconfig:remote.*.url:https://example.com/**\"]\n\tpath = foo\n");
+        assertNull(GitConfig.loadOpt(checkout, List.of()));
+        assertNull(GitConfig.loadOpt(dir.join("nogit").mkdir(), List.of()));
+    }
+
+    @Test
+    public void worktree() throws IOException {
+        FileNode main;
+        FileNode worktree;
+        FileNode gitDir;
+
+        main = checkout("main", "[remote \"origin\"]\n\turl = https://example.com/p.git\n");
+        gitDir = main.join(".git/worktrees/wt").mkdirs();
+        gitDir.join("commondir").writeString("../..\n");
+        gitDir.join("HEAD").writeString("ref: refs/heads/feature\n");
+        worktree = dir.join("wt").mkdir();
+        worktree.join(".git").writeString("gitdir: ../main/.git/worktrees/wt\n");
+        assertEquals(gitDir, GitConfig.gitDirOpt(worktree));
+        assertEquals(main.join(".git"), GitConfig.commonDir(gitDir));
+        assertEquals("https://example.com/p.git", GitConfig.loadOpt(worktree, List.of()).remoteUrl("origin"));
+    }
+
+    @Test
+    public void insteadOf() throws IOException {
+        FileNode global;
+        GitConfig config;
+
+        global = dir.join("gitconfig");
+        global.writeString("""
+                [url "git@github.com:"]
+                \tinsteadOf = https://github.com/
+                [url "git@github.com:acme/"]
+                \tinsteadOf = https://github.com/acme/
+                \tinsteadOf = gh:
+                """);
+        config = GitConfig.loadOpt(checkout("p", "[remote \"origin\"]\n\turl = gh:p.git\n"), List.of(global));
+        assertEquals("git@github.com:acme/p.git", config.remoteUrl("origin"));
+        assertEquals("git@github.com:other/q.git", config.rewriteUrl("https://github.com/other/q.git"));
+        assertEquals("git@github.com:acme/q.git", config.rewriteUrl("https://github.com/acme/q.git"));
+        assertEquals("https://gitlab.com/q.git", config.rewriteUrl("https://gitlab.com/q.git"));
+    }
+
+    @Test
+    public void matches() {
+        assertTrue(GitConfig.matches("**/work/**", "/home/x/work/p/.git", false));
+        assertTrue(GitConfig.matches("/home/*/work/**", "/home/x/work/p/.git", false));
+        assertFalse(GitConfig.matches("/home/*/work/**", "/home/x/y/work/p/.git", false));
+        assertTrue(GitConfig.matches("/HOME/x/[vw]ork/**", "/home/x/work/.git", true));
+        assertFalse(GitConfig.matches("/home/x/[!w]ork/**", "/home/x/work/.git", false));
+    }
+}
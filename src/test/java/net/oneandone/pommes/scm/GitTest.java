@@ -19,6 +19,8 @@ import net.oneandone.pommes.database.Gav;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class GitTest {
     @Test
@@ -35,4 +37,31 @@ public class GitTest {
         assertEquals(new Gav("cisoops", "clm", "1-SNAPSHOT"),
                 GitUrl.create("ssh://git@bitbucket.1and1.org/cisoops/clm.git").defaultGav());
     }
+
+    @Test
+    public void state() {
+        GitState state;
+
+        state = GitState.parse("""
+                # branch.oid 1234
+                # branch.head main
+                # branch.upstream origin/main
+                # branch.ab +0 -3
+                """, false, false);
+        assertFalse(state.isModified());
+        assertEquals("clean", state.toString());
+        state = GitState.parse("""
+                # branch.oid 1234
+                # branch.head main
+                # branch.upstream origin/main
+                # branch.ab +2 -0
+                1 M. N... 100644 100644 100644 1234 5678 staged.txt
+                1 .M N... 100644 100644 100644 1234 1234 unstaged.txt
+                """, false, true);
+        assertTrue(state.isModified());
+        assertEquals("staged changes, unstaged changes, unpushed commits, stashes", state.toString());
+        assertTrue(GitState.parse("# branch.oid (initial)\n# branch.head main\n", true, false).unpushed());
+        assertTrue(GitState.hasUpstream("# branch.oid 1234\n# branch.head main\n# branch.upstream origin/main\n# branch.ab +0 -0\n"));
+        assertFalse(GitState.hasUpstream("# branch.oid 1234\n# branch.head main\n"));
+    }
 }
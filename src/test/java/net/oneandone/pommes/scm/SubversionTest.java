@@ -16,11 +16,20 @@
 package net.oneandone.pommes.scm;
 
 import net.oneandone.pommes.database.Gav;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
 import org.junit.jupiter.api.Test;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNRevision;
 
 import java.net.URISyntaxException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SubversionTest {
     @Test
@@ -38,4 +47,34 @@ public class SubversionTest {
         assertEquals(new Gav("", "puppet_ciso", "1-SNAPSHOT"),
                 new SubversionUrl("https://svn.1and1.org/svn/puppet_ciso/").defaultGav());
     }
+
+    @Test
+    public void workingCopy() throws Exception {
+        FileNode dir;
+        SVNURL url;
+        FileNode checkout;
+        SVNClientManager manager;
+        Subversion svn;
+
+        dir = World.create().getTemp().createTempDirectory();
+        try {
+            url = SVNRepositoryFactory.createLocalRepository(dir.join("repo").toPath().toFile(), true, false);
+            checkout = dir.join("checkout");
+            manager = SVNClientManager.newInstance();
+            try {
+                manager.getUpdateClient().doCheckout(url, checkout.toPath().toFile(), SVNRevision.HEAD, SVNRevision.HEAD, SVNDepth.INFINITY, false);
+            } finally {
+                manager.dispose();
+            }
+            svn = new Subversion();
+            assertTrue(svn.isCheckout(checkout));
+            assertEquals(url.toString(), svn.getUrl(checkout).url());
+            assertFalse(svn.isModified(checkout));
+            assertTrue(svn.isAlive(checkout));
+            checkout.join("file.txt").writeString("hello");
+            assertTrue(svn.isModified(checkout));
+        } finally {
+            dir.deleteTree();
+        }
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.http.HttpNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Stub server instead of Artifactory */
+public class AqlTest {
+    private static final Pattern PAGE = Pattern.compile("\\.offset\\((\\d+)\\)\\.limit\\((\\d+)\\)");
+
+    private HttpServer server;
+    private List<String> queries;
+    private int total;
+
+    @BeforeEach
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/artifactory/api/search/aql", this::handle);
+        server.start();
+        queries = new ArrayList<>();
+        total = 0;
+    }
+
+    @AfterEach
+    public void after() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String query;
+        Matcher matcher;
+        int offset;
+        int limit;
+        StringBuilder results;
+        byte[] body;
+
+        query = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        queries.add(query);
+        matcher = PAGE.matcher(query);
+        if (!"POST".equals(exchange.getRequestMethod()) || !matcher.find()) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        offset = Integer.parseInt(matcher.group(1));
+        limit = Integer.parseInt(matcher.group(2));
+        results = new StringBuilder();
+        for (int i = offset; i < Math.min(offset + limit, total); i++) {
+            if (results.length() > 0) {
+                results.append(',');
+            }
+            results.append("{\"path\":\"sub/g/a" + i + "/1\",\"name\":\"a" + i + "-1.pom\",\"actual_sha1\":\"sha" + i
+                    + "\",\"modified\":\"2024-01-01T00:00:00.000Z\"}");
+        }
+        body = ("{\"results\":[" + results + "],\"range\":{\"start_pos\":" + offset + "}}").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream dest = exchange.getResponseBody()) {
+            dest.write(body);
+        }
+        exchange.close();
+    }
+
+    private Aql aql(int pageSize) throws Exception {
+        return new Aql((HttpNode) World.create().node("http://localhost:" + server.getAddress().getPort() + "/artifactory"), pageSize);
+    }
+
+    @Test
+    public void paging() throws Exception {
+        List<Artifact> found;
+
+        total = 7;
+        found = new ArrayList<>();
+        assertEquals(7, aql(3).findPoms("repo", "sub", null, found::add));
+        assertEquals(3, queries.size());
+        assertEquals(7, found.size());
+        assertEquals(new Artifact("/g/a0/1/a0-1.pom", "sha0"), found.get(0));
+        assertEquals(new Artifact("/g/a6/1/a6-1.pom", "sha6"), found.get(6));
+        assertTrue(queries.get(2).contains(".offset(6).limit(3)"));
+    }
+
+    @Test
+    public void exactPage() throws Exception {
+        total = 4;
+        assertEquals(4, aql(2).findPoms("repo", "sub", null, artifact -> { }));
+        assertEquals(3, queries.size());
+    }
+
+    @Test
+    public void criteria() {
+        assertEquals("{\"repo\":\"repo\",\"name\":{\"$match\":\"*.pom\"}}", Aql.criteria("repo", "", null));
+        assertEquals("{\"repo\":\"repo\",\"name\":{\"$match\":\"*.pom\"},"
+                        + "\"$or\":[{\"path\":{\"$eq\":\"a/b\"}},{\"path\":{\"$match\":\"a/b/*\"}}],"
+                        + "\"modified\":{\"$gt\":\"2024-01-02T03:04:05.006Z\"}}",
+                Aql.criteria("repo", "a/b", Instant.parse("2024-01-02T03:04:05.006789Z")));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.oneandone.sushi.fs.World;
+import net.oneandone.sushi.fs.file.FileNode;
+import net.oneandone.sushi.fs.http.HttpNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HttpCacheTest {
+    private HttpServer server;
+    private AtomicInteger full;
+    private AtomicInteger notModified;
+    private String etag;
+    private World world;
+
+    @BeforeEach
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        full = new AtomicInteger();
+        notModified = new AtomicInteger();
+        etag = "\"1\"";
+        world = World.create();
+    }
+
+    @AfterEach
+    public void after() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body;
+
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            full.incrementAndGet();
+            body = ("body " + etag).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream dest = exchange.getResponseBody()) {
+                dest.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private HttpNode node(String path) throws Exception {
+        return (HttpNode) world.node("http://localhost:" + server.getAddress().getPort() + "/" + path);
+    }
+
+    @Test
+    public void revalidate() throws Exception {
+        FileNode dir;
+        HttpCache cache;
+
+        dir = world.getTemp().createTempDirectory();
+        cache = new HttpCache(dir, 1024 * 1024);
+        assertEquals("body \"1\"", cache.readString(node("a")));
+        assertEquals("body \"1\"", cache.readString(node("a")));
+        assertEquals(1, full.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, dir.list().size()); // validators and body in one file
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir.toPath())));
+
+        // persistent
+        cache = new HttpCache(dir, 1024 * 1024);
+        assertEquals("body \"1\"", cache.readString(node("a")));
+        assertEquals(1, full.get());
+
+        etag = "\"2\"";
+        assertEquals("body \"2\"", cache.readString(node("a")));
+        assertEquals(2, full.get());
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        HttpCache cache;
+
+        cache = new HttpCache(world.getTemp().createTempDirectory(), 0);
+        cache.readString(node("a"));
+        cache.readString(node("a"));
+        assertEquals(2, full.get());
+        assertEquals(0, notModified.get());
+    }
+
+    @Test
+    public void evict() throws Exception {
+        FileNode dir;
+        HttpCache cache;
+
+        dir = world.getTemp().createTempDirectory();
+        cache = new HttpCache(dir, 100);
+        for (int i = 0; i < 20; i++) {
+            cache.readString(node("n" + i));
+        }
+        cache.readString(node("n19"));
+        assertEquals(1, notModified.get());
+        cache.readString(node("n0"));
+        assertEquals(21, full.get());
+    }
+}
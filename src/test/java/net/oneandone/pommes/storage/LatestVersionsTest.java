@@ -0,0 +1,54 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LatestVersionsTest {
+    @Test
+    public void latest() throws InterruptedException {
+        LatestVersions latest;
+        List<String> result;
+
+        latest = new LatestVersions(2);
+        latest.handle(artifact("/net/oneandone/a/1.9/a-1.9.pom"));
+        latest.handle(artifact("/net/oneandone/a/1.10/a-1.10.pom"));
+        latest.handle(artifact("/net/oneandone/a/1.10-beta-1/a-1.10-beta-1.pom"));
+        latest.handle(artifact("/net/oneandone/a/1.2/a-1.2.pom"));
+        latest.handle(artifact("/net/oneandone/b/1.0/b-1.0.pom"));
+        latest.handle(artifact("/net/oneandone/b/2.0-SNAPSHOT/b-2.0-20240101.120000-9.pom"));
+        latest.handle(artifact("/net/oneandone/b/2.0-SNAPSHOT/b-2.0-20240101.130000-10.pom"));
+        latest.handle(artifact("/toplevel.pom"));
+        result = new ArrayList<>();
+        latest.flush(artifact -> result.add(artifact.uri()));
+        result.sort(null);
+        assertEquals(List.of(
+                "/net/oneandone/a/1.10-beta-1/a-1.10-beta-1.pom",
+                "/net/oneandone/a/1.10/a-1.10.pom",
+                "/net/oneandone/b/1.0/b-1.0.pom",
+                "/net/oneandone/b/2.0-SNAPSHOT/b-2.0-20240101.130000-10.pom",
+                "/toplevel.pom"), result);
+    }
+
+    private static Artifact artifact(String uri) {
+        return new Artifact(uri, "sha1");
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 1&1 Internet AG, https://github.com/1and1/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oneandone.pommes.storage;
+
+import net.oneandone.inline.Console;
+import net.oneandone.pommes.descriptor.Descriptor;
+import net.oneandone.pommes.descriptor.UnchangedDescriptor;
+import net.oneandone.pommes.scm.ScmUrl;
+import net.oneandone.sushi.fs.Node;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TreeStorageTest {
+    /** repositories are names, repository "fails" cannot be loaded */
+    private static class StubStorage extends TreeStorage<String, String> {
+        StubStorage() {
+            super(null, "stub");
+        }
+
+        @Override
+        public Descriptor load(String repository) throws IOException {
+            if (repository.startsWith("fails")) {
+                throw new IOException("cannot load " + repository);
+            }
+            return new UnchangedDescriptor(name, repository, "new");
+        }
+
+        @Override
+        public List<String> list() {
+            return List.of("changed", "fails", "unchanged");
+        }
+
+        @Override
+        public List<String> listChangedOpt(Instant since) {
+            return List.of("changed", "fails");
+        }
+
+        @Override
+        public Set<String> listRepositoryPathsOpt() {
+            return Set.of("changed", "fails", "unchanged");
+        }
+
+        @Override
+        public String repositoryPathOpt(String repository) {
+            return repository;
+        }
+
+        @Override
+        public List<String> listRoot(String repository) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String fileName(String file) {
+            return file;
+        }
+
+        @Override
+        public Descriptor createDefault(String repository) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScmUrl storageUrl(String repository) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String repositoryPath(String repository, String file) {
+            return repository;
+        }
+
+        @Override
+        public Node<?> localFile(String repository, String file) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String fileRevision(String repository, String file, Node<?> local) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static Map<String, String> scan(Instant changedSince) throws Exception {
+        StubStorage storage;
+        LinkedBlockingQueue<Descriptor> queue;
+        TreeMap<String, String> indexed;
+        Map<String, String> result;
+
+        storage = new StubStorage();
+        indexed = new TreeMap<>(Map.of("changed", "old", "fails/pom.xml", "old", "unchanged", "old", "deleted", "old"));
+        storage.setIndexed(indexed);
+        storage.setChangedSince(changedSince);
+        queue = new LinkedBlockingQueue<>();
+        storage.scan(queue, Console.create());
+        result = new TreeMap<>();
+        for (Descriptor descriptor : new ArrayList<>(queue)) {
+            result.put(descriptor.getPath(), descriptor.getRevision());
+        }
+        assertEquals(1, storage.getLoadErrors());
+        return result;
+    }
+
+    @Test
+    public void incrementalKeepsFailed() throws Exception {
+        assertEquals(Map.of("changed", "new", "fails/pom.xml", "old", "unchanged", "old"), scan(Instant.now()));
+    }
+
+    @Test
+    public void fullKeepsFailed() throws Exception {
+        assertEquals(Map.of("changed", "new", "fails/pom.xml", "old", "unchanged", "new"), scan(null));
+    }
+}